@@ -0,0 +1,53 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.bench;
+
+import org.rrlib.finroc_core_utils.jc.container.Queueable;
+
+/**
+ * @author Max Reichardt
+ *
+ * Element that is passed through queues in benchmarks.
+ *
+ * Elements are pre-allocated by producers and reused as soon as
+ * a consumer has dequeued them. This way, benchmarks do not
+ * measure the garbage collector - and the number of elements in flight
+ * (and therefore queue length) is bounded.
+ */
+public class BenchElement extends Queueable {
+
+    /**
+     * Is element currently enqueued (or not yet handled by consumer)?
+     * (volatile: producer busy-waits on this flag, while consumer thread clears it)
+     */
+    volatile boolean inFlight;
+
+    /** Time when element was enqueued (System.nanoTime()) - 0 if element is not sampled for latency measurement */
+    long enqueueTime;
+
+    /** Index of producer that created this element */
+    final int producer;
+
+    public BenchElement(int producer) {
+        this.producer = producer;
+    }
+}
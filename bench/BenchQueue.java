@@ -0,0 +1,522 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.bench;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
+import org.rrlib.finroc_core_utils.jc.container.BoundedQElementContainer;
+import org.rrlib.finroc_core_utils.jc.container.QueueFragment;
+import org.rrlib.finroc_core_utils.jc.container.ReusablesPoolCR;
+import org.rrlib.finroc_core_utils.jc.container.WonderQueue;
+import org.rrlib.finroc_core_utils.jc.container.WonderQueueBounded;
+import org.rrlib.finroc_core_utils.jc.container.WonderQueueFast;
+import org.rrlib.finroc_core_utils.jc.container.WonderQueueFastCR;
+import org.rrlib.finroc_core_utils.jc.container.WonderRingQueue;
+import org.rrlib.finroc_core_utils.jc.container.WonderQueueTL;
+
+/**
+ * @author Max Reichardt
+ *
+ * Common interface for all queues that are benchmarked.
+ *
+ * Subclasses wrap one queue variant each.
+ * Methods that the wrapped queue does not provide are emulated
+ * (e.g. batch dequeueing via repeated single dequeue calls).
+ */
+public abstract class BenchQueue {
+
+    /** Capability flags: May multiple threads enqueue concurrently? May multiple threads dequeue concurrently? May reader and writer be different threads? */
+    public static final int CONCURRENT_WRITERS = 1, CONCURRENT_READERS = 2, CROSS_THREAD = 4;
+
+    /**
+     * Add element to the end of the queue
+     *
+     * @param e Element to enqueue
+     */
+    public abstract void enqueue(BenchElement e);
+
+    /**
+     * Remove first element from queue and return it (single reader)
+     *
+     * @return Element that was dequeued - null if no element is available
+     */
+    public abstract BenchElement dequeue();
+
+    /**
+     * Remove first element from queue and return it (may be called by multiple readers concurrently)
+     *
+     * @return Element that was dequeued - null if no element is available
+     */
+    public BenchElement concurrentDequeue() {
+        return dequeue();
+    }
+
+    /**
+     * Dequeue multiple elements at once (single reader)
+     *
+     * @param buffer Buffer to write result to
+     * @param maxElements Maximum number of elements to dequeue
+     * @return Actual number of elements dequeued
+     */
+    public int dequeue(ArrayWrapper<BenchElement> buffer, int maxElements) {
+        int pos = 0;
+        while (pos < maxElements) {
+            BenchElement e = dequeue();
+            if (e == null) {
+                break;
+            }
+            buffer.set(pos, e);
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Dequeue multiple elements at once (may be called by multiple readers concurrently)
+     *
+     * @param buffer Buffer to write result to
+     * @param maxElements Maximum number of elements to dequeue
+     * @return Actual number of elements dequeued
+     */
+    public int concurrentDequeue(ArrayWrapper<BenchElement> buffer, int maxElements) {
+        int pos = 0;
+        while (pos < maxElements) {
+            BenchElement e = concurrentDequeue();
+            if (e == null) {
+                break;
+            }
+            buffer.set(pos, e);
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Creates instances of a queue variant
+     */
+    public static abstract class Factory {
+
+        /** Name of queue variant */
+        public final String name;
+
+        /** Capability flags (see constants above) */
+        public final int capabilities;
+
+        public Factory(String name, int capabilities) {
+            this.name = name;
+            this.capabilities = capabilities;
+        }
+
+        /**
+         * @param capacity Maximum number of elements that will be in queue concurrently
+         * @return New (empty) queue instance
+         */
+        public abstract BenchQueue create(int capacity);
+
+        /**
+         * @param capability Capability flag(s)
+         * @return Does queue variant have all these capabilities?
+         */
+        public boolean has(int capability) {
+            return (capabilities & capability) == capability;
+        }
+    }
+
+    /**
+     * @return Factories for all benchmarked queue variants
+     */
+    public static Factory[] getFactories() {
+        return new Factory[] {
+            new Factory("WonderQueue", CONCURRENT_WRITERS | CONCURRENT_READERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new WonderQueueBench();
+                }
+            },
+            new Factory("WonderQueue-drain", CONCURRENT_WRITERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new WonderQueueDrainBench();
+                }
+            },
+            new Factory("WonderQueue-nonblock", CONCURRENT_WRITERS | CONCURRENT_READERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new WonderQueueNonBlockingBench();
+                }
+            },
+            new Factory("WonderQueueFast", CONCURRENT_WRITERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new WonderQueueFastBench();
+                }
+            },
+            new Factory("WonderQueueFastCR", CONCURRENT_WRITERS | CONCURRENT_READERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new WonderQueueFastCRBench();
+                }
+            },
+            new Factory("WonderQueueTL", 0) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new WonderQueueTLBench();
+                }
+            },
+            new Factory("WonderQueueBounded", CONCURRENT_WRITERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new WonderQueueBoundedBench(false);
+                }
+            },
+            new Factory("WonderQueueBounded-ref", CONCURRENT_WRITERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new WonderQueueBoundedBench(true);
+                }
+            },
+            new Factory("WonderRingQueue", CONCURRENT_WRITERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new WonderRingQueueBench(capacity);
+                }
+            },
+            new Factory("ConcurrentLinkedQueue", CONCURRENT_WRITERS | CONCURRENT_READERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new ConcurrentLinkedQueueBench();
+                }
+            },
+            new Factory("ArrayBlockingQueue", CONCURRENT_WRITERS | CONCURRENT_READERS | CROSS_THREAD) {
+                @Override
+                public BenchQueue create(int capacity) {
+                    return new ArrayBlockingQueueBench(capacity);
+                }
+            }
+        };
+    }
+
+    static class WonderQueueBench extends BenchQueue {
+
+        private final WonderQueue<BenchElement> queue = new WonderQueue<BenchElement>();
+
+        @Override
+        public void enqueue(BenchElement e) {
+            queue.enqueue(e);
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.dequeue();
+        }
+
+        @Override
+        public BenchElement concurrentDequeue() {
+            return queue.concurrentDequeue();
+        }
+
+        @Override
+        public int dequeue(ArrayWrapper<BenchElement> buffer, int maxElements) {
+            return queue.dequeue(buffer, maxElements);
+        }
+    }
+
+    /**
+     * WonderQueue with batch dequeueing via drain()
+     */
+    static class WonderQueueDrainBench extends BenchQueue implements Consumer<BenchElement> {
+
+        private final WonderQueue<BenchElement> queue = new WonderQueue<BenchElement>();
+
+        /** Buffer and position that drained elements are currently written to */
+        private ArrayWrapper<BenchElement> buffer;
+        private int pos;
+
+        @Override
+        public void enqueue(BenchElement e) {
+            queue.enqueue(e);
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.dequeue();
+        }
+
+        @Override
+        public int dequeue(ArrayWrapper<BenchElement> buffer, int maxElements) {
+            this.buffer = buffer;
+            pos = 0;
+            return queue.drain(this, maxElements);
+        }
+
+        @Override
+        public void accept(BenchElement e) {
+            buffer.set(pos, e);
+            pos++;
+        }
+    }
+
+    static class WonderQueueNonBlockingBench extends BenchQueue {
+
+        private final WonderQueue<BenchElement> queue = new WonderQueue<BenchElement>(true);
+
+        @Override
+        public void enqueue(BenchElement e) {
+            queue.enqueue(e);
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.concurrentDequeue();
+        }
+    }
+
+    static class WonderQueueFastBench extends BenchQueue {
+
+        private final WonderQueueFast<BenchElement> queue = new WonderQueueFast<BenchElement>();
+
+        @Override
+        public void enqueue(BenchElement e) {
+            queue.enqueue(e);
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.dequeue();
+        }
+    }
+
+    static class WonderQueueFastCRBench extends BenchQueue {
+
+        private final WonderQueueFastCR<BenchElement> queue = new WonderQueueFastCR<BenchElement>();
+
+        @Override
+        public void enqueue(BenchElement e) {
+            queue.enqueue(e);
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.dequeue();
+        }
+    }
+
+    static class WonderQueueTLBench extends BenchQueue {
+
+        private final WonderQueueTL<BenchElement> queue = new WonderQueueTL<BenchElement>();
+
+        @Override
+        public void enqueue(BenchElement e) {
+            queue.enqueue(e);
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.dequeue();
+        }
+    }
+
+    static class WonderQueueBoundedBench extends BenchQueue {
+
+        private final BoundedQueue queue;
+
+        /** Fragment for batch dequeueing */
+        private final QueueFragment<BenchElement, BoundedContainer> fragment = new QueueFragment<BenchElement, BoundedContainer>();
+
+        /**
+         * @param directReferences Use stamped pointers with direct references (AtomicStampedPtrRef)?
+         */
+        WonderQueueBoundedBench(boolean directReferences) {
+            queue = new BoundedQueue(directReferences);
+            queue.init();
+        }
+
+        @Override
+        public void enqueue(BenchElement e) {
+            queue.enqueueWrapped(e);
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.dequeue();
+        }
+
+        @Override
+        public int dequeue(ArrayWrapper<BenchElement> buffer, int maxElements) {
+            int pos = 0;
+            boolean fetched = false;
+            while (pos < maxElements) {
+                BenchElement e = fragment.dequeue();
+                if (e == null) {
+                    if (fetched) {
+                        break;
+                    }
+                    queue.dequeueAll(fragment);
+                    fetched = true;
+                    continue;
+                }
+                buffer.set(pos, e);
+                pos++;
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Bounded queue for benchmark elements (unlimited length)
+     */
+    static class BoundedQueue extends WonderQueueBounded<BenchElement, BoundedContainer> {
+
+        /** Pool with containers */
+        private final ReusablesPoolCR<BoundedContainer> containers = new ReusablesPoolCR<BoundedContainer>();
+
+        /** Number of containers that pool is warmed up with (registered for indices en bloc) */
+        private static final int PREALLOCATED_CONTAINERS = 1024;
+
+        BoundedQueue() {
+            this(false);
+        }
+
+        /**
+         * @param directReferences Use stamped pointers with direct references (AtomicStampedPtrRef)?
+         */
+        BoundedQueue(boolean directReferences) {
+            super(-1, directReferences);
+            containers.preallocate(PREALLOCATED_CONTAINERS, () -> new BoundedContainer(false), true);
+        }
+
+        @Override
+        protected BoundedContainer getEmptyContainer() {
+            BoundedContainer result = containers.getUnused();
+            return result == null ? createContainer() : result;
+        }
+
+        /**
+         * @return Newly created unused container
+         */
+        private synchronized BoundedContainer createContainer() {
+            BoundedContainer result = new BoundedContainer();
+            containers.attach(result, false);
+            return result;
+        }
+    }
+
+    /**
+     * Container for bounded queue
+     */
+    static class BoundedContainer extends BoundedQElementContainer {
+
+        BoundedContainer() {
+        }
+
+        /**
+         * @param registerForIndex Register container for index now?
+         */
+        BoundedContainer(boolean registerForIndex) {
+            super(registerForIndex);
+        }
+
+        @Override
+        protected void recycle(boolean recycleContent) {
+            if (recycleContent) {
+                recycleContent();
+            }
+            element = null;
+            super.recycle();
+        }
+
+        @Override
+        protected void recycleContent() {
+            recycleContent(element);
+        }
+
+        @Override
+        public void recycleContent(Object content) {
+            if (content != null) {
+                ((BenchElement)content).inFlight = false;
+            }
+        }
+    }
+
+    static class WonderRingQueueBench extends BenchQueue {
+
+        private final WonderRingQueue<BenchElement> queue;
+
+        WonderRingQueueBench(int capacity) {
+            queue = new WonderRingQueue<BenchElement>(capacity);
+        }
+
+        @Override
+        public void enqueue(BenchElement e) {
+            boolean added = queue.enqueue(e);
+            assert(added) : "Capacity too small";
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.dequeue();
+        }
+
+        @Override
+        public int dequeue(ArrayWrapper<BenchElement> buffer, int maxElements) {
+            return queue.dequeue(buffer, maxElements);
+        }
+    }
+
+    static class ConcurrentLinkedQueueBench extends BenchQueue {
+
+        private final ConcurrentLinkedQueue<BenchElement> queue = new ConcurrentLinkedQueue<BenchElement>();
+
+        @Override
+        public void enqueue(BenchElement e) {
+            queue.offer(e);
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.poll();
+        }
+    }
+
+    static class ArrayBlockingQueueBench extends BenchQueue {
+
+        private final ArrayBlockingQueue<BenchElement> queue;
+
+        ArrayBlockingQueueBench(int capacity) {
+            queue = new ArrayBlockingQueue<BenchElement>(capacity);
+        }
+
+        @Override
+        public void enqueue(BenchElement e) {
+            boolean added = queue.offer(e);
+            assert(added) : "Capacity too small";
+        }
+
+        @Override
+        public BenchElement dequeue() {
+            return queue.poll();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.bench;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rrlib.finroc_core_utils.jc.PaddedAtomicLong;
+
+/**
+ * @author Max Reichardt
+ *
+ * Shows the effect of false sharing on a multi-core machine:
+ * Each thread increments an atomic counter of its own.
+ * The counters are either plain AtomicLongs that were allocated
+ * one after another (=> typically in the same cache line) or PaddedAtomicLongs.
+ *
+ * Usage: FalseSharingBenchmark [-t threads] [-i iterations] [-r iterationTimeMs]
+ */
+public class FalseSharingBenchmark {
+
+    /** Number of threads */
+    private int threads = Math.min(4, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    /** Number of measurement iterations (one additional warm-up iteration is performed) */
+    private int iterations = 5;
+
+    /** Duration of one iteration in ms */
+    private long iterationTime = 1000;
+
+    public static void main(String[] args) throws Exception {
+        FalseSharingBenchmark benchmark = new FalseSharingBenchmark();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-t")) {
+                benchmark.threads = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-i")) {
+                benchmark.iterations = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-r")) {
+                benchmark.iterationTime = Long.parseLong(args[i + 1]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        System.out.println(String.format("%-18s %8s %14s", "Counter", "Threads", "Mops/s"));
+        for (int i = 0; i < 2; i++) {
+            for (boolean padded : new boolean[] {false, true}) {
+                double sum = 0;
+                for (int j = 0; j <= benchmark.iterations; j++) {
+                    double ops = benchmark.runIteration(padded);
+                    if (j > 0) {
+                        sum += ops;
+                    }
+                }
+                if (i > 0) { // first round is warm-up for both variants
+                    System.out.println(String.format("%-18s %8d %14.3f", padded ? "PaddedAtomicLong" : "AtomicLong", benchmark.threads, sum / benchmark.iterations / 1000000));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param padded Use padded counters?
+     * @return Total number of increments per second
+     */
+    private double runIteration(boolean padded) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        final Incrementer[] workers = new Incrementer[threads];
+
+        // allocate counters one after another (so that plain counters are likely to share cache lines)
+        AtomicLong[] plainCounters = new AtomicLong[threads];
+        PaddedAtomicLong[] paddedCounters = new PaddedAtomicLong[threads];
+        for (int i = 0; i < threads; i++) {
+            if (padded) {
+                paddedCounters[i] = new PaddedAtomicLong();
+            } else {
+                plainCounters[i] = new AtomicLong();
+            }
+        }
+        for (int i = 0; i < threads; i++) {
+            workers[i] = padded ? new PaddedIncrementer(barrier, paddedCounters[i]) : new PlainIncrementer(barrier, plainCounters[i]);
+        }
+        for (Incrementer w : workers) {
+            w.start();
+        }
+        barrier.await();
+        long start = System.nanoTime();
+        Thread.sleep(iterationTime);
+        for (Incrementer w : workers) {
+            w.stopSignal = true;
+        }
+        long duration = System.nanoTime() - start;
+        long ops = 0;
+        for (Incrementer w : workers) {
+            w.join();
+            ops += w.count();
+        }
+        return ops * 1000000000.0 / duration;
+    }
+
+    /**
+     * Thread that increments its counter
+     */
+    private static abstract class Incrementer extends Thread {
+
+        /** Barrier to start all threads at the same time */
+        private final CyclicBarrier barrier;
+
+        /** Set when iteration is over */
+        volatile boolean stopSignal = false;
+
+        Incrementer(CyclicBarrier barrier) {
+            this.barrier = barrier;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                barrier.await();
+            } catch (Exception e) {
+                return;
+            }
+            while (!stopSignal) {
+                for (int i = 0; i < 100; i++) {
+                    increment();
+                }
+            }
+        }
+
+        /** Increment counter */
+        protected abstract void increment();
+
+        /** @return Counter value */
+        protected abstract long count();
+    }
+
+    private static class PlainIncrementer extends Incrementer {
+
+        private final AtomicLong counter;
+
+        PlainIncrementer(CyclicBarrier barrier, AtomicLong counter) {
+            super(barrier);
+            this.counter = counter;
+        }
+
+        @Override
+        protected void increment() {
+            counter.incrementAndGet();
+        }
+
+        @Override
+        protected long count() {
+            return counter.get();
+        }
+    }
+
+    private static class PaddedIncrementer extends Incrementer {
+
+        private final PaddedAtomicLong counter;
+
+        PaddedIncrementer(CyclicBarrier barrier, PaddedAtomicLong counter) {
+            super(barrier);
+            this.counter = counter;
+        }
+
+        @Override
+        protected void increment() {
+            counter.incrementAndGet();
+        }
+
+        @Override
+        protected long count() {
+            return counter.get();
+        }
+    }
+}
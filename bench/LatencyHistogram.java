@@ -0,0 +1,138 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.bench;
+
+/**
+ * @author Max Reichardt
+ *
+ * Simple log-linear histogram for latency values in nanoseconds.
+ *
+ * Values below 64 are recorded exactly. Above, every power of two
+ * is split into 32 sub-buckets - so the relative error of
+ * percentiles is below 3.2%.
+ * Recording does not allocate memory. Not thread-safe - every
+ * consumer thread uses its own histogram and histograms are merged afterwards.
+ */
+public class LatencyHistogram {
+
+    /** Number of sub-buckets per power of two (2^SUB_BUCKET_BITS) */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** Values below this limit are recorded exactly */
+    private static final int LINEAR_LIMIT = 64;
+
+    /** Number of bits of values recorded exactly */
+    private static final int LINEAR_BITS = 6;
+
+    /** Bucket counters */
+    private final long[] buckets = new long[LINEAR_LIMIT + (64 - LINEAR_BITS) * (1 << SUB_BUCKET_BITS)];
+
+    /** Total number of recorded values */
+    private long count;
+
+    /** Maximum recorded value */
+    private long max;
+
+    /**
+     * @param value Value to record (negative values are recorded as 0)
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[getBucketIndex(value)]++;
+        count++;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * @param other Histogram whose values to add to this one
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Maximum recorded value
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percentile Percentile (0.0 - 100.0)
+     * @return Value at specified percentile (lower bound of bucket) - 0 if histogram is empty
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(getBucketValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param value Value
+     * @return Index of bucket that value belongs to
+     */
+    private static int getBucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return LINEAR_LIMIT + ((exponent - LINEAR_BITS) << SUB_BUCKET_BITS) + sub;
+    }
+
+    /**
+     * @param index Bucket index
+     * @return Smallest value that is recorded in this bucket
+     */
+    private static long getBucketValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = ((index - LINEAR_LIMIT) >> SUB_BUCKET_BITS) + LINEAR_BITS;
+        long sub = (index - LINEAR_LIMIT) & ((1 << SUB_BUCKET_BITS) - 1);
+        return ((1L << SUB_BUCKET_BITS) | sub) << (exponent - SUB_BUCKET_BITS);
+    }
+}
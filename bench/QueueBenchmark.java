@@ -0,0 +1,423 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+
+import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
+
+/**
+ * @author Max Reichardt
+ *
+ * Throughput and latency benchmark for all WonderQueue variants
+ * and WonderRingQueue (compared to ConcurrentLinkedQueue and ArrayBlockingQueue).
+ *
+ * Topologies:
+ *  ST   - single thread enqueues bursts and dequeues them again (only topology for WonderQueueTL)
+ *  1P1C - one producer thread, one consumer thread
+ *  NP1C - N producer threads, one consumer thread
+ *  NPNC - N producer threads, N consumer threads (only queues that allow concurrent reads)
+ *
+ * Every topology is run with single and with batched dequeueing.
+ * Each producer owns a fixed set of elements that it reuses as soon as they have
+ * been consumed. This bounds the number of elements in flight - so latencies
+ * are measured at saturation and are dominated by queueing delay.
+ * Every sampleInterval-th element carries an enqueue timestamp.
+ *
+ * Usage: QueueBenchmark [-wi warmupIterations] [-i iterations] [-r iterationTimeMs]
+ *                       [-p producers] [-c consumers] [-b batchSize] [-s sampleInterval]
+ *                       [-q queueNameFilter] [-t ST,1P1C,NP1C,NPNC]
+ */
+public class QueueBenchmark {
+
+    /** Number of pre-allocated elements per producer (=> maximum number of elements in flight per producer) */
+    private static final int ELEMENTS_PER_PRODUCER = 1024;
+
+    /** Number of warm-up and measurement iterations */
+    private int warmupIterations = 3, iterations = 5;
+
+    /** Duration of one iteration in ms */
+    private long iterationTime = 1000;
+
+    /** Number of producer and consumer threads in NP and NC topologies */
+    private int producers = Math.max(2, Runtime.getRuntime().availableProcessors() / 2), consumers = producers;
+
+    /** Number of elements to dequeue at once in batch mode */
+    private int batchSize = 64;
+
+    /** Every sampleInterval-th element is used for latency measurement (must be 2^x) */
+    private int sampleInterval = 64;
+
+    /** Only benchmark queues whose name contains this string */
+    private String queueFilter = "";
+
+    /** Topologies to benchmark */
+    private String topologies = "ST,1P1C,NP1C,NPNC";
+
+    public static void main(String[] args) throws Exception {
+        QueueBenchmark benchmark = new QueueBenchmark();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            benchmark.setOption(args[i], args[i + 1]);
+        }
+        benchmark.run(BenchQueue.getFactories());
+    }
+
+    /**
+     * @param option Option name (e.g. "-wi")
+     * @param value Option value
+     */
+    private void setOption(String option, String value) {
+        if (option.equals("-wi")) {
+            warmupIterations = Integer.parseInt(value);
+        } else if (option.equals("-i")) {
+            iterations = Integer.parseInt(value);
+        } else if (option.equals("-r")) {
+            iterationTime = Long.parseLong(value);
+        } else if (option.equals("-p")) {
+            producers = Integer.parseInt(value);
+        } else if (option.equals("-c")) {
+            consumers = Integer.parseInt(value);
+        } else if (option.equals("-b")) {
+            batchSize = Integer.parseInt(value);
+        } else if (option.equals("-s")) {
+            sampleInterval = Integer.highestOneBit(Math.max(1, Integer.parseInt(value)));
+        } else if (option.equals("-q")) {
+            queueFilter = value;
+        } else if (option.equals("-t")) {
+            topologies = value;
+        } else {
+            throw new IllegalArgumentException("Unknown option " + option);
+        }
+    }
+
+    /**
+     * Run benchmark for all specified queue variants and print results
+     *
+     * @param factories Queue variants
+     */
+    public void run(BenchQueue.Factory[] factories) throws Exception {
+        System.out.println(String.format("%-22s %-5s %-6s %14s %10s %10s %10s %10s", "Queue", "Topo", "Dequeue", "Mops/s", "+-", "p50[ns]", "p99[ns]", "p99.9[ns]"));
+        for (BenchQueue.Factory factory : factories) {
+            if (!factory.name.contains(queueFilter)) {
+                continue;
+            }
+            for (String topology : topologies.split(",")) {
+                for (int batch : new int[] {1, batchSize}) {
+                    runScenario(factory, topology.trim(), batch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run and print single scenario (skipped if queue does not support topology)
+     *
+     * @param factory Queue variant
+     * @param topology Topology name
+     * @param batch Batch size (1 for single dequeue)
+     */
+    private void runScenario(BenchQueue.Factory factory, String topology, int batch) throws Exception {
+        int p = 0, c = 0;
+        if (topology.equals("1P1C")) {
+            p = 1;
+            c = 1;
+        } else if (topology.equals("NP1C")) {
+            p = producers;
+            c = 1;
+        } else if (topology.equals("NPNC")) {
+            p = producers;
+            c = consumers;
+        } else if (!topology.equals("ST")) {
+            throw new IllegalArgumentException("Unknown topology " + topology);
+        }
+        if ((p > 0 && !factory.has(BenchQueue.CROSS_THREAD)) || (p > 1 && !factory.has(BenchQueue.CONCURRENT_WRITERS)) ||
+                (c > 1 && !factory.has(BenchQueue.CONCURRENT_READERS))) {
+            return;
+        }
+        String topoName = (p == 0) ? topology : (p + "P" + c + "C");
+
+        LatencyHistogram latency = new LatencyHistogram();
+        double[] throughput = new double[iterations];
+        try {
+            for (int i = 0; i < warmupIterations + iterations; i++) {
+                LatencyHistogram iterationLatency = new LatencyHistogram();
+                double opsPerSec = (p == 0) ? runSingleThreaded(factory, batch, iterationLatency) : runIteration(factory, p, c, batch, iterationLatency);
+                if (i >= warmupIterations) {
+                    throughput[i - warmupIterations] = opsPerSec;
+                    latency.add(iterationLatency);
+                }
+            }
+        } catch (Throwable t) {
+            System.out.println(String.format("%-22s %-5s %-6s FAILED: %s", factory.name, topoName, batch == 1 ? "single" : "batch", t.toString()));
+            return;
+        }
+
+        double mean = 0, min = Double.MAX_VALUE, max = 0;
+        for (double d : throughput) {
+            mean += d / throughput.length;
+            min = Math.min(min, d);
+            max = Math.max(max, d);
+        }
+        System.out.println(String.format("%-22s %-5s %-6s %14.3f %10.3f %10d %10d %10d", factory.name, topoName, batch == 1 ? "single" : "batch",
+                                         mean / 1000000, (max - min) / 2000000, latency.getPercentile(50), latency.getPercentile(99), latency.getPercentile(99.9)));
+    }
+
+    /**
+     * Run one iteration with separate producer and consumer threads
+     *
+     * @return Number of dequeued elements per second
+     */
+    private double runIteration(BenchQueue.Factory factory, int producerCount, int consumerCount, int batch, LatencyHistogram latency) throws Exception {
+        BenchQueue queue = factory.create(producerCount * ELEMENTS_PER_PRODUCER + 1);
+        CyclicBarrier barrier = new CyclicBarrier(producerCount + consumerCount + 1);
+        ArrayList<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < producerCount; i++) {
+            workers.add(new Producer(queue, barrier, i));
+        }
+        ArrayList<Consumer> consumerList = new ArrayList<Consumer>();
+        for (int i = 0; i < consumerCount; i++) {
+            Consumer consumer = new Consumer(queue, barrier, batch, consumerCount > 1);
+            consumerList.add(consumer);
+            workers.add(consumer);
+        }
+        for (Worker w : workers) {
+            w.start();
+        }
+
+        barrier.await();
+        long start = System.nanoTime();
+        Thread.sleep(iterationTime);
+        for (Worker w : workers) {
+            w.stopSignal = true;
+        }
+        long duration = System.nanoTime() - start;
+
+        long ops = 0;
+        for (Worker w : workers) {
+            w.join();
+            if (w.error != null) {
+                throw new RuntimeException(w.error);
+            }
+        }
+        for (Consumer consumer : consumerList) {
+            ops += consumer.operations;
+            latency.add(consumer.latency);
+        }
+        return ops * 1000000000.0 / duration;
+    }
+
+    /**
+     * Run one iteration in current thread: enqueue bursts of batch size (at least 64) and dequeue them again
+     *
+     * @return Number of dequeued elements per second
+     */
+    private double runSingleThreaded(BenchQueue.Factory factory, int batch, LatencyHistogram latency) {
+        BenchQueue queue = factory.create(ELEMENTS_PER_PRODUCER + 1);
+        BenchElement[] elements = createElements(0);
+        ArrayWrapper<BenchElement> buffer = new ArrayWrapper<BenchElement>(batch);
+        int burst = Math.max(64, batch);
+        int sampleMask = sampleInterval - 1;
+        long ops = 0;
+        int index = 0;
+        long start = System.nanoTime();
+        long end = start + iterationTime * 1000000L;
+        long now = start;
+        while (now < end) {
+            for (int i = 0; i < burst; i++, index++) {
+                BenchElement e = elements[index & (ELEMENTS_PER_PRODUCER - 1)];
+                e.inFlight = true;
+                e.enqueueTime = ((index & sampleMask) == 0) ? System.nanoTime() : 0;
+                queue.enqueue(e);
+            }
+            while (true) {
+                int n = 0;
+                if (batch == 1) {
+                    BenchElement e = queue.dequeue();
+                    if (e != null) {
+                        buffer.set(0, e);
+                        n = 1;
+                    }
+                } else {
+                    n = queue.dequeue(buffer, batch);
+                }
+                if (n == 0) {
+                    break;
+                }
+                consumed(buffer, n, latency);
+                ops += n;
+            }
+            now = System.nanoTime();
+        }
+        return ops * 1000000000.0 / (now - start);
+    }
+
+    /**
+     * @param producer Producer index
+     * @return Elements for producer
+     */
+    private static BenchElement[] createElements(int producer) {
+        BenchElement[] elements = new BenchElement[ELEMENTS_PER_PRODUCER];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new BenchElement(producer);
+        }
+        return elements;
+    }
+
+    /**
+     * Handle consumed elements: record latency (if sampled) and release them to producer
+     *
+     * @param buffer Buffer with consumed elements
+     * @param n Number of consumed elements in buffer
+     * @param latency Histogram to record latencies in
+     */
+    private static void consumed(ArrayWrapper<BenchElement> buffer, int n, LatencyHistogram latency) {
+        long now = 0;
+        for (int i = 0; i < n; i++) {
+            BenchElement e = buffer.get(i);
+            buffer.set(i, null);
+            if (e.enqueueTime != 0) {
+                if (now == 0) {
+                    now = System.nanoTime();
+                }
+                latency.record(now - e.enqueueTime);
+            }
+            e.inFlight = false;
+        }
+    }
+
+    /**
+     * Benchmark thread
+     */
+    private static abstract class Worker extends Thread {
+
+        /** Queue under test */
+        protected final BenchQueue queue;
+
+        /** Barrier to start all threads at the same time */
+        private final CyclicBarrier barrier;
+
+        /** Set when iteration is over */
+        protected volatile boolean stopSignal = false;
+
+        /** Error that occured in thread - null if there was none */
+        private volatile Throwable error;
+
+        Worker(BenchQueue queue, CyclicBarrier barrier) {
+            this.queue = queue;
+            this.barrier = barrier;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                barrier.await();
+                work();
+            } catch (Throwable t) {
+                error = t;
+            }
+        }
+
+        /** Benchmark loop */
+        protected abstract void work();
+    }
+
+    /**
+     * Producer thread
+     */
+    private class Producer extends Worker {
+
+        /** Elements owned by this producer */
+        private final BenchElement[] elements;
+
+        Producer(BenchQueue queue, CyclicBarrier barrier, int index) {
+            super(queue, barrier);
+            elements = createElements(index);
+            setName("Producer " + index);
+        }
+
+        @Override
+        protected void work() {
+            int sampleMask = sampleInterval - 1;
+            for (int index = 0; !stopSignal; index++) {
+                BenchElement e = elements[index & (ELEMENTS_PER_PRODUCER - 1)];
+                while (e.inFlight) { // all elements in flight: wait for consumer
+                    if (stopSignal) {
+                        return;
+                    }
+                    Thread.yield();
+                }
+                e.inFlight = true;
+                e.enqueueTime = ((index & sampleMask) == 0) ? System.nanoTime() : 0;
+                queue.enqueue(e);
+            }
+        }
+    }
+
+    /**
+     * Consumer thread
+     */
+    private class Consumer extends Worker {
+
+        /** Dequeue batch size (1 for single dequeue) */
+        private final int batch;
+
+        /** Use concurrent dequeue methods? */
+        private final boolean concurrent;
+
+        /** Number of dequeued elements */
+        private long operations;
+
+        /** Recorded latencies */
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Consumer(BenchQueue queue, CyclicBarrier barrier, int batch, boolean concurrent) {
+            super(queue, barrier);
+            this.batch = batch;
+            this.concurrent = concurrent;
+            setName("Consumer");
+        }
+
+        @Override
+        protected void work() {
+            ArrayWrapper<BenchElement> buffer = new ArrayWrapper<BenchElement>(batch);
+            while (!stopSignal) {
+                int n = 0;
+                if (batch == 1) {
+                    BenchElement e = concurrent ? queue.concurrentDequeue() : queue.dequeue();
+                    if (e != null) {
+                        buffer.set(0, e);
+                        n = 1;
+                    }
+                } else {
+                    n = concurrent ? queue.concurrentDequeue(buffer, batch) : queue.dequeue(buffer, batch);
+                }
+                if (n == 0) {
+                    Thread.yield();
+                    continue;
+                }
+                consumed(buffer, n, latency);
+                operations += n;
+            }
+        }
+    }
+}
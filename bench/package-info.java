@@ -0,0 +1,31 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+
+/**
+ * This package contains micro benchmarks for the concurrent containers
+ * in this library - so that choosing a queue or pool variant can be
+ * based on measurements rather than on comments.
+ *
+ * Benchmarks are plain Java programs without further dependencies.
+ * Entry point is QueueBenchmark.main().
+ */
+package org.rrlib.finroc_core_utils.bench;
@@ -22,8 +22,10 @@
 package org.rrlib.finroc_core_utils.jc;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.rrlib.finroc_core_utils.jc.thread.LoopThread;
+import org.rrlib.finroc_core_utils.jc.thread.Task;
 import org.rrlib.finroc_core_utils.jc.thread.ThreadUtil;
 import org.rrlib.logging.Log;
 import org.rrlib.logging.LogLevel;
@@ -75,6 +77,9 @@ public class GarbageCollector extends LoopThread {
     /** Next delete task - never null */
     private DeferredDeleteTask next = new DeferredDeleteTask();
 
+    /** Maintenance tasks that are executed in every cycle (e.g. shrinking of pools) */
+    private static final CopyOnWriteArrayList<Task> periodicTasks = new CopyOnWriteArrayList<Task>();
+
     private GarbageCollector() {
         super(1000, false, false);
         assert(started == NO) : "may only create single instance";
@@ -162,6 +167,11 @@ public class GarbageCollector extends LoopThread {
             next.execute();
         }
 
+        // execute periodic maintenance tasks
+        for (Task task : periodicTasks) {
+            task.executeTask();
+        }
+
         //TODO not necessary
         // cleanup inactive threads
         //ThreadLocalInfo.cleanupThreads();
@@ -196,6 +206,23 @@ public class GarbageCollector extends LoopThread {
         gc.tasks.add(t);
     }
 
+    /**
+     * Add task that garbage collector thread executes in every cycle (every second).
+     * (Meant for low-priority maintenance - such as shrinking pools. Tasks should not take long.)
+     *
+     * @param task Task to add
+     */
+    public static void addPeriodicTask(Task task) {
+        periodicTasks.addIfAbsent(task);
+    }
+
+    /**
+     * @param task Periodic task to remove (see addPeriodicTask())
+     */
+    public static void removePeriodicTask(Task task) {
+        periodicTasks.remove(task);
+    }
+
     /**
      * Garbage Collector task
      */
@@ -21,12 +21,21 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
 import org.rrlib.serialization.BinaryInputStream;
 import org.rrlib.serialization.BinaryOutputStream;
 import org.rrlib.serialization.BinarySerializable;
 
 /**
  * Wraps an array
+ *
+ * Serialization supports compact encodings (see setEncoding()):
+ * With ENCODING_VARINT, elements are written as zigzag varints - with ENCODING_DELTA, the differences
+ * between consecutive elements are (efficient for sorted id lists).
+ * Compact encodings are marked in the serialized data - so deserialize() handles all encodings.
  */
 public class IntArrayWrapper implements BinarySerializable {
 
@@ -39,6 +48,24 @@ public class IntArrayWrapper implements BinarySerializable {
     /** Universal Empty Array Wrapper */
     private static final IntArrayWrapper EMPTY = new IntArrayWrapper(0);
 
+    /** Encodings for serialization: 4 bytes per element (default), zigzag varints, zigzag varints of differences to previous element */
+    public static final byte ENCODING_FIXED = 0, ENCODING_VARINT = 1, ENCODING_DELTA = 2;
+
+    /** Encoding used for serialization */
+    private byte encoding = ENCODING_FIXED;
+
+    /** Maximum number of bytes of a varint-encoded element */
+    private static final int MAX_VARINT_BYTES = 5;
+
+    /** Byte order of serialized elements with ENCODING_FIXED (same as BinaryOutputStream.writeInt()) */
+    private static final ByteOrder FIXED_BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /** Size of scratch buffer for (de)serialization in bytes (larger arrays are transferred in blocks of this size) */
+    private static final int BLOCK_SIZE = 1024;
+
+    /** Scratch buffer for (de)serialization - one per thread (so that (de)serialization does not allocate memory) */
+    private static final ThreadLocal<ScratchBuffer> scratchBuffer = new ThreadLocal<ScratchBuffer>();
+
     /**
      * @return Empty Array Wrapper
      */
@@ -121,24 +148,204 @@ public class IntArrayWrapper implements BinarySerializable {
         return backend[size];
     }
 
+    /**
+     * @param i New size of array (must not exceed capacity)
+     */
     public void setSize(int i) {
-        size = 0;
+        assert(i >= 0 && i <= getCapacity());
+        size = i;
+    }
+
+    /**
+     * Replace array contents with elements from array
+     *
+     * @param src Array to copy from
+     * @param offset Offset of first element in src
+     * @param length Number of elements to copy (must not exceed capacity)
+     */
+    public void copyFrom(int[] src, int offset, int length) {
+        assert(length <= getCapacity());
+        System.arraycopy(src, offset, backend, 0, length);
+        size = length;
+    }
+
+    /**
+     * Copy array contents to array
+     *
+     * @param dest Array to copy to
+     * @param offset Offset in dest
+     */
+    public void copyTo(int[] dest, int offset) {
+        System.arraycopy(backend, 0, dest, offset, size);
+    }
+
+    /**
+     * @param encoding Encoding used for serialization (see constants)
+     */
+    public void setEncoding(byte encoding) {
+        assert(encoding >= ENCODING_FIXED && encoding <= ENCODING_DELTA);
+        this.encoding = encoding;
+    }
+
+    /**
+     * @return Encoding used for serialization
+     */
+    public byte getEncoding() {
+        return encoding;
     }
 
     @Override
     public void serialize(BinaryOutputStream os) {
-        os.writeInt(size());
-        for (int i = 0, n = size(); i < n; i++) {
-            os.writeInt(get(i));
+        if (encoding == ENCODING_FIXED) { // elements are copied to byte blocks in bulk
+            os.writeInt(size);
+            ScratchBuffer scratch = getScratchBuffer();
+            byte[] block = scratch.bytes;
+            IntBuffer blockInts = scratch.ints;
+            for (int i = 0; i < size;) {
+                int count = Math.min(size - i, block.length / 4);
+                blockInts.clear();
+                blockInts.put(backend, i, count);
+                os.write(block, 0, count * 4);
+                i += count;
+            }
+            return;
+        }
+
+        // compact encoding: [-encoding][size][number of bytes][varints]
+        long len = 0;
+        for (int i = 0; i < size; i++) {
+            int bits = 32 - Integer.numberOfLeadingZeros(getZigzag(i));
+            len += Math.max(1, (bits + 6) / 7);
         }
+        if (len > Integer.MAX_VALUE) {
+            throw new RuntimeException("Encoded data too large (" + len + " bytes)");
+        }
+        os.writeInt(-encoding);
+        os.writeInt(size);
+        os.writeInt((int)len);
+        byte[] block = getScratchBuffer().bytes;
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            if (pos + MAX_VARINT_BYTES > block.length) {
+                os.write(block, 0, pos);
+                pos = 0;
+            }
+            int zigzag = getZigzag(i);
+            while ((zigzag & ~0x7F) != 0) {
+                block[pos++] = (byte)((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            block[pos++] = (byte)zigzag;
+        }
+        os.write(block, 0, pos);
+    }
+
+    /**
+     * @param index Index of element
+     * @return Element as it is varint-encoded with current encoding (zigzag-encoded value or difference to previous element)
+     */
+    private int getZigzag(int index) {
+        int value = (encoding == ENCODING_DELTA && index > 0) ? backend[index] - backend[index - 1] : backend[index];
+        return (value << 1) ^ (value >> 31);
     }
 
     @Override
     public void deserialize(BinaryInputStream is) {
-        setSize(0);
-        int size = is.readInt();
-        for (int i = 0; i < size; i++) {
-            add(is.readInt());
+        int first = is.readInt();
+        if (first >= 0) { // ENCODING_FIXED: first value is size
+            checkCapacity(first);
+            ScratchBuffer scratch = getScratchBuffer();
+            byte[] block = scratch.bytes;
+            IntBuffer blockInts = scratch.ints;
+            for (int i = 0; i < first;) {
+                int count = Math.min(first - i, block.length / 4);
+                is.readFully(block, 0, count * 4);
+                blockInts.clear();
+                blockInts.get(backend, i, count);
+                i += count;
+            }
+            size = first;
+            return;
+        }
+
+        int encoding = -first;
+        if (encoding != ENCODING_VARINT && encoding != ENCODING_DELTA) {
+            throw new RuntimeException("Invalid encoding " + encoding);
+        }
+        int newSize = is.readInt();
+        checkCapacity(newSize);
+        int len = is.readInt();
+        if (len < 0 || len > (long)newSize * MAX_VARINT_BYTES) {
+            throw new RuntimeException("Invalid number of encoded bytes (" + len + ") for " + newSize + " elements");
+        }
+        byte[] block = getScratchBuffer().bytes;
+        int blockPos = 0, blockEnd = 0;
+        int unread = len; // encoded bytes that have not been read from stream yet
+        int previous = 0;
+        for (int i = 0; i < newSize; i++) {
+            int zigzag = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift == 7 * MAX_VARINT_BYTES) {
+                    throw new RuntimeException("Varint of element " + i + " exceeds " + MAX_VARINT_BYTES + " bytes");
+                }
+                if (blockPos == blockEnd) { // read next block
+                    if (unread == 0) {
+                        throw new RuntimeException("Encoded data (" + len + " bytes) ends in element " + i + " of " + newSize);
+                    }
+                    blockEnd = Math.min(block.length, unread);
+                    is.readFully(block, 0, blockEnd);
+                    unread -= blockEnd;
+                    blockPos = 0;
+                }
+                byte b = block[blockPos++];
+                zigzag |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            int value = (zigzag >>> 1) ^ -(zigzag & 1);
+            if (encoding == ENCODING_DELTA) {
+                value += previous;
+                previous = value;
+            }
+            backend[i] = value;
+        }
+        if (unread > 0 || blockPos != blockEnd) {
+            throw new RuntimeException("Encoded data contains " + (unread + blockEnd - blockPos) + " bytes after last element");
+        }
+        size = newSize;
+    }
+
+    /**
+     * @param newSize Number of elements to deserialize
+     */
+    private void checkCapacity(int newSize) {
+        if (newSize < 0 || newSize > getCapacity()) {
+            throw new RuntimeException("Cannot deserialize " + newSize + " elements - capacity is " + getCapacity());
         }
     }
+
+    /**
+     * @return Scratch buffer of current thread
+     */
+    private static ScratchBuffer getScratchBuffer() {
+        ScratchBuffer scratch = scratchBuffer.get();
+        if (scratch == null) {
+            scratch = new ScratchBuffer();
+            scratchBuffer.set(scratch);
+        }
+        return scratch;
+    }
+
+    /**
+     * Scratch buffer for (de)serialization
+     */
+    private static class ScratchBuffer {
+
+        /** Buffer */
+        private final byte[] bytes = new byte[BLOCK_SIZE];
+
+        /** View on buffer for elements with ENCODING_FIXED */
+        private final IntBuffer ints = ByteBuffer.wrap(bytes).order(FIXED_BYTE_ORDER).asIntBuffer();
+    }
 }
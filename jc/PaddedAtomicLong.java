@@ -0,0 +1,152 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * @author Max Reichardt
+ *
+ * Padding before value of PaddedAtomicLong
+ * (128 bytes - as adjacent cache lines are often prefetched in pairs)
+ */
+@SuppressWarnings("unused")
+abstract class PaddedAtomicLongPad0 {
+    private long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+}
+
+/**
+ * @author Max Reichardt
+ *
+ * Value of PaddedAtomicLong
+ */
+abstract class PaddedAtomicLongValue extends PaddedAtomicLongPad0 {
+
+    /** Updater for value */
+    protected static final AtomicLongFieldUpdater<PaddedAtomicLongValue> updater = AtomicLongFieldUpdater.newUpdater(PaddedAtomicLongValue.class, "value");
+
+    /** Wrapped value */
+    protected volatile long value;
+}
+
+/**
+ * @author Max Reichardt
+ *
+ * Atomic long value that occupies cache line(s) of its own.
+ *
+ * Meant for "hot" atomic variables that are written by some threads (e.g. producers)
+ * while other threads (e.g. consumers) write variables that would otherwise be
+ * located next to it (false sharing).
+ * Padding is placed before and after the value - so this does not depend
+ * on where the JVM places this object relative to other objects.
+ *
+ * Provides the relevant subset of java.util.concurrent.atomic.AtomicLong's interface.
+ * (In C++, this is an aligned std::atomic)
+ */
+@SuppressWarnings("unused")
+public class PaddedAtomicLong extends PaddedAtomicLongValue {
+
+    private long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+
+    public PaddedAtomicLong() {}
+
+    /**
+     * @param initialValue Initial value
+     */
+    public PaddedAtomicLong(long initialValue) {
+        value = initialValue;
+    }
+
+    /**
+     * @return Current value
+     */
+    public long get() {
+        return value;
+    }
+
+    /**
+     * @param newValue New value
+     */
+    public void set(long newValue) {
+        value = newValue;
+    }
+
+    /**
+     * Eventually sets value (ordered/release store - no full fence)
+     *
+     * @param newValue New value
+     */
+    public void lazySet(long newValue) {
+        updater.lazySet(this, newValue);
+    }
+
+    /**
+     * @param expect Expected value
+     * @param update New value
+     * @return Did value match expectation? Was new value set?
+     */
+    public boolean compareAndSet(long expect, long update) {
+        return updater.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * @param newValue New value
+     * @return Previous value
+     */
+    public long getAndSet(long newValue) {
+        return updater.getAndSet(this, newValue);
+    }
+
+    /**
+     * @param delta Value to add
+     * @return Previous value
+     */
+    public long getAndAdd(long delta) {
+        return updater.getAndAdd(this, delta);
+    }
+
+    /**
+     * @param delta Value to add
+     * @return Updated value
+     */
+    public long addAndGet(long delta) {
+        return updater.addAndGet(this, delta);
+    }
+
+    /**
+     * @return Updated value
+     */
+    public long incrementAndGet() {
+        return updater.incrementAndGet(this);
+    }
+
+    /**
+     * @return Updated value
+     */
+    public long decrementAndGet() {
+        return updater.decrementAndGet(this);
+    }
+
+    public String toString() {
+        return Long.toString(value);
+    }
+}
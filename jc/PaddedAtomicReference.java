@@ -0,0 +1,118 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * @author Max Reichardt
+ *
+ * Padding before value of PaddedAtomicReference
+ */
+@SuppressWarnings("unused")
+abstract class PaddedAtomicReferencePad0 {
+    private long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+}
+
+/**
+ * @author Max Reichardt
+ *
+ * Value of PaddedAtomicReference
+ */
+abstract class PaddedAtomicReferenceValue extends PaddedAtomicReferencePad0 {
+
+    /** Updater for value */
+    protected static final AtomicReferenceFieldUpdater<PaddedAtomicReferenceValue, Object> updater =
+        AtomicReferenceFieldUpdater.newUpdater(PaddedAtomicReferenceValue.class, Object.class, "value");
+
+    /** Wrapped value */
+    protected volatile Object value;
+}
+
+/**
+ * @author Max Reichardt
+ *
+ * Atomic reference that occupies cache line(s) of its own.
+ * (see PaddedAtomicLong)
+ *
+ * Provides the relevant subset of java.util.concurrent.atomic.AtomicReference's interface.
+ */
+@SuppressWarnings("unused")
+public class PaddedAtomicReference<V> extends PaddedAtomicReferenceValue {
+
+    private long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+
+    public PaddedAtomicReference() {}
+
+    /**
+     * @param initialValue Initial value
+     */
+    public PaddedAtomicReference(V initialValue) {
+        value = initialValue;
+    }
+
+    /**
+     * @return Current value
+     */
+    @SuppressWarnings("unchecked")
+    public V get() {
+        return (V)value;
+    }
+
+    /**
+     * @param newValue New value
+     */
+    public void set(V newValue) {
+        value = newValue;
+    }
+
+    /**
+     * Eventually sets value (ordered/release store - no full fence)
+     *
+     * @param newValue New value
+     */
+    public void lazySet(V newValue) {
+        updater.lazySet(this, newValue);
+    }
+
+    /**
+     * @param expect Expected value
+     * @param update New value
+     * @return Did value match expectation? Was new value set?
+     */
+    public boolean compareAndSet(V expect, V update) {
+        return updater.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * @param newValue New value
+     * @return Previous value
+     */
+    @SuppressWarnings("unchecked")
+    public V getAndSet(V newValue) {
+        return (V)updater.getAndSet(this, newValue);
+    }
+
+    public String toString() {
+        return String.valueOf(value);
+    }
+}
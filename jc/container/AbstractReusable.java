@@ -45,6 +45,19 @@ public abstract class AbstractReusable extends Queueable {
         registerIndex = AllocationRegister.getInstance().indexReusable(this);
     }
 
+    /**
+     * (Called by AllocationRegister when registering reusables en bloc - see AllocationRegister.registerForIndex())
+     *
+     * @param index Index in reusable register
+     * @throws IllegalStateException If reusable has already been registered for an index
+     */
+    void setRegisterIndex(int index) {
+        if (registerIndex >= 0) {
+            throw new IllegalStateException("Reusable has already been registered for index " + registerIndex);
+        }
+        registerIndex = index;
+    }
+
     protected AbstractReusable() {
         AllocationRegister.getInstance().registerReusable(this);
     }
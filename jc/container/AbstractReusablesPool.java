@@ -21,12 +21,19 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.container;
 
+import java.util.function.Supplier;
+
 import org.rrlib.finroc_core_utils.jc.HasDestructor;
 
 /**
  * @author Max Reichardt
  *
  * This is the base class of all kinds of pools of reusable objects.
+ *
+ * Pools can be warmed up with a number of objects (preallocate()) and capped at a maximum size (setMaxSize()).
+ * Pools can be shrunk - by removing unused objects above a low-water mark (trim()).
+ *
+ * Pools can record statistics (enableStatistics()) - these are available via PoolStatisticsRegistry.
  */
 public abstract class AbstractReusablesPool<T extends AbstractReusable> implements HasDestructor {
 
@@ -36,6 +43,309 @@ public abstract class AbstractReusablesPool<T extends AbstractReusable> implemen
     /** "Lock" to allocation register - ensures that report will be printed after pool has been deleted */
     protected AllocationRegister allocationRegisterLock = AllocationRegister.getInstance();
 
+    /** Number of reusables attached to this pool (only changed by owner thread - or with pool locked - but may be read by any thread) */
+    protected volatile int attachedCount;
+
+    /** Maximum number of reusables attached to this pool - negative values signal that there's no limit */
+    protected int maxSize = -1;
+
+    /** Optional statistics - null if disabled (needs to be set before pool is used) */
+    protected PoolStatistics statistics;
+
+    /**
+     * Attaches (and enqueues) a Reusable object to this pool - if pool has not reached its maximum size.
+     * The object will be returned to the pool when recycled.
+     *
+     * If the pool has reached its maximum size, the object is not attached.
+     * It is deleted immediately if it was meant to be enqueued - otherwise, it is deleted when it is recycled.
+     * (attach() of subclasses behaves the same way - but does not report whether object was attached)
+     *
+     * @param r Reusable to attach and enqueue
+     * @param enqueueNow Enqueue attached element or use directly?
+     * @return True if object was attached - false if pool has reached its maximum size
+     */
+    public abstract boolean tryAttach(T r, boolean enqueueNow);
+
+    /**
+     * Remove unused objects from pool (and delete them) - until there are only lowWaterMark objects attached
+     * (or no unused objects are left)
+     *
+     * ReusablesPool and ReusablesPoolTL: May only be called by the thread that retrieves objects from the pool.
+     * ReusablesPoolCR: May be called by any thread.
+     *
+     * Note: The wrapped queues of ReusablesPool and ReusablesPoolCR (WonderQueueFast and WonderQueueFastCR) never return
+     * their last element. So one unused object per wrapped queue always remains in these pools
+     * (e.g. trim(0) leaves one object attached - or one per stripe in striped ReusablesPoolCR).
+     *
+     * @param lowWaterMark Number of objects to keep
+     * @return Number of removed objects
+     */
+    public int trim(int lowWaterMark) {
+        int removed = 0;
+        while (attachedCount - removed > lowWaterMark) {
+            T r = dequeueForRemoval();
+            if (r == null) {
+                break;
+            }
+            detach(r); // marks object for removal
+            removed++;
+        }
+        if (removed > 0) {
+            deleteDetached();
+            recordRemoval(removed);
+        }
+        return removed;
+    }
+
+    /**
+     * Unlink and delete all attached objects that were detached (see trim())
+     */
+    private void deleteDetached() {
+        T prev = null;
+        T elem = lastCreated;
+        while (elem != null) {
+            T next = getNextAttached(elem);
+            if (isDetached(elem)) {
+                if (prev == null) {
+                    lastCreated = next;
+                } else {
+                    setNextAttached(prev, next);
+                }
+                setNextAttached(elem, null);
+                attachedCount--;
+                elem.delete();
+            } else {
+                prev = elem;
+            }
+            elem = next;
+        }
+    }
+
+    /**
+     * (Called by trim())
+     *
+     * @return Unused object from pool - null if there is none
+     */
+    protected abstract T dequeueForRemoval();
+
+    /**
+     * Detach object from pool - marks it for removal (called by trim())
+     *
+     * @param r Unused object that was dequeued from pool
+     */
+    protected abstract void detach(T r);
+
+    /**
+     * @param r Attached object
+     * @return Has object been detached (see detach())?
+     */
+    protected abstract boolean isDetached(T r);
+
+    /**
+     * @param r Attached object
+     * @return Next object in list of attached objects (see lastCreated)
+     */
+    protected abstract T getNextAttached(T r);
+
+    /**
+     * @param r Attached object
+     * @param next Next object in list of attached objects (see lastCreated)
+     */
+    protected abstract void setNextAttached(T r, T next);
+
+    /**
+     * Warm up pool: Create and attach (enqueue) the specified number of objects.
+     *
+     * Should only be called by owner thread.
+     *
+     * @param count Number of objects to create
+     * @param factory Creates the objects
+     * @return Number of objects that were attached (can be less, if pool reaches its maximum size)
+     */
+    public int preallocate(int count, Supplier<? extends T> factory) {
+        return preallocate(count, factory, false);
+    }
+
+    /**
+     * Warm up pool: Create and attach (enqueue) the specified number of objects.
+     * Optionally, the created objects are registered for indices en bloc (see AllocationRegister.registerForIndex()):
+     * With a single atomic operation - and with adjacent indices.
+     *
+     * Should only be called by owner thread.
+     *
+     * @param count Number of objects to create
+     * @param factory Creates the objects (must not register them for an index, if registerForIndex is set - e.g. BoundedQElementContainers created with registerForIndex set to false)
+     * @param registerForIndex Register created objects for indices en bloc?
+     * @return Number of objects that were attached (can be less, if pool reaches its maximum size)
+     */
+    @SuppressWarnings("unchecked")
+    public int preallocate(int count, Supplier<? extends T> factory, boolean registerForIndex) {
+        if (maxSize >= 0) {
+            count = Math.min(count, maxSize - attachedCount);
+        }
+        if (count <= 0) {
+            return 0;
+        }
+        AbstractReusable[] created = new AbstractReusable[count];
+        for (int i = 0; i < count; i++) {
+            created[i] = factory.get();
+        }
+        if (registerForIndex) {
+            allocationRegisterLock.registerForIndex(created);
+        }
+        int attached = 0;
+        for (AbstractReusable r : created) {
+            if (tryAttach((T)r, true)) { // objects that cannot be attached are deleted
+                attached++;
+            }
+        }
+        return attached;
+    }
+
+    /**
+     * @param maxSize Maximum number of reusables attached to this pool - negative values signal that there's no limit
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return Maximum number of reusables attached to this pool - negative values signal that there's no limit
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return Number of reusables attached to this pool
+     */
+    public int getAttachedCount() {
+        return attachedCount;
+    }
+
+    /**
+     * @return May another reusable be attached to this pool?
+     */
+    protected boolean attachAllowed() {
+        return maxSize < 0 || attachedCount < maxSize;
+    }
+
+    /**
+     * Record statistics of this pool and add them to PoolStatisticsRegistry
+     * (should be called before pool is used)
+     *
+     * @param name Name of pool (for reports)
+     * @return Statistics of this pool
+     */
+    public PoolStatistics enableStatistics(String name) {
+        PoolStatistics stats = new PoolStatistics(name);
+        stats.attached.add(attachedCount);
+        stats.created.add(attachedCount);
+        statistics = stats;
+        PoolStatisticsRegistry.add(stats);
+        return stats;
+    }
+
+    /**
+     * @return Statistics of this pool - null if disabled
+     */
+    public PoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Hand statistics of this pool to PoolStatisticsRegistry.retire() (called when pool is deleted)
+     */
+    protected void retireStatistics() {
+        PoolStatistics stats = statistics;
+        if (stats != null) {
+            PoolStatisticsRegistry.retire(stats);
+        }
+    }
+
+    /**
+     * @return Owner for objects after pool has been deleted (deletes them when they are recycled) - null if statistics are disabled
+     */
+    ReusableOwner getDeletedPoolOwner() {
+        PoolStatistics stats = statistics;
+        return stats != null ? stats.deletedPoolOwner : null;
+    }
+
+    /**
+     * Handle object that is not attached, because pool has reached its maximum size:
+     * It is deleted - immediately if it was meant to be enqueued, otherwise when it is recycled.
+     * The deletion is recorded in statistics (if enabled).
+     *
+     * @param r Object that is not attached
+     * @param enqueueNow Was object meant to be enqueued?
+     * @return Owner to set for object (null if it was deleted or if statistics are disabled)
+     */
+    ReusableOwner rejectAttach(T r, boolean enqueueNow) {
+        PoolStatistics stats = statistics;
+        if (enqueueNow) {
+            if (stats != null) {
+                stats.deletedBecausePoolFull.increment();
+            }
+            r.delete();
+            return null;
+        }
+        return stats != null ? stats.poolFullOwner : null;
+    }
+
+    /**
+     * Record attached object in statistics (if enabled)
+     *
+     * @param usedDirectly Is object used directly (instead of being enqueued)?
+     */
+    protected void recordAttach(boolean usedDirectly) {
+        PoolStatistics stats = statistics;
+        if (stats != null) {
+            stats.attached.increment();
+            stats.created.increment();
+            if (usedDirectly) {
+                stats.obtained.increment();
+            }
+        }
+    }
+
+    /**
+     * Record removed objects in statistics (if enabled)
+     *
+     * @param count Number of objects removed from pool
+     */
+    protected void recordRemoval(int count) {
+        PoolStatistics stats = statistics;
+        if (stats != null) {
+            stats.attached.add(-count);
+        }
+    }
+
+    /**
+     * Record result of getUnused() in statistics (if enabled)
+     *
+     * @param result Object returned by getUnused()
+     */
+    protected void recordGet(AbstractReusable result) {
+        PoolStatistics stats = statistics;
+        if (stats != null) {
+            if (result != null) {
+                stats.obtained.increment();
+            } else {
+                stats.misses.increment();
+            }
+        }
+    }
+
+    /**
+     * Record recycled object in statistics (if enabled)
+     */
+    protected void recordRecycle() {
+        PoolStatistics stats = statistics;
+        if (stats != null) {
+            stats.recycled.increment();
+        }
+    }
+
     /**
      * @return Pointer to Last created reusable => linked list to all reusables
      */
@@ -21,9 +21,11 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.container;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.rrlib.finroc_core_utils.jc.Time;
 import org.rrlib.logging.Log;
@@ -37,6 +39,13 @@ import org.rrlib.logging.LogLevel;
  *
  * Furthermore, global register for all reusable objects that should be assigned an application-unique 32bit Integer.
  * Allows associating the unique integer with an object - which in turn allows storing a stamped pointer in a long variable.
+ *
+ * The register of indexed reusables is lock-free:
+ * It is a segmented, append-only table - segments are allocated when needed and never moved.
+ * So readers (getByIndex() is called in every operation of index-based stamped pointers) never need a lock
+ * and never see a resize in progress.
+ * Freed slots are managed in a lock-free stack (with a stamp against the ABA problem) that is linked through
+ * a per-slot int array - so no boxing is required.
  */
 public class AllocationRegister {
 
@@ -62,14 +71,20 @@ public class AllocationRegister {
     @SuppressWarnings("unused")
     private final ArrayList<AbstractReusable> trackedReusables = new ArrayList<AbstractReusable>();
 
-    /** Initial size of indexed-Reusables register */
-    private static final int INITIAL_REUSABLES_INDEX_SIZE = 128000;
+    /** Number of bits of index that select the element in segment - and resulting segment size */
+    private static final int SEGMENT_BITS = 16, SEGMENT_SIZE = 1 << SEGMENT_BITS, SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /** Maximum number of segments (indices are positive 32 bit integers) */
+    private static final int MAX_SEGMENTS = 1 << (31 - SEGMENT_BITS);
+
+    /** Segments of table that contains all reusables that should be indexed - position in table is "official" index */
+    private final AtomicReferenceArray<Segment> indexedReusables = new AtomicReferenceArray<Segment>(MAX_SEGMENTS);
 
-    /** ArrayList that contains all reusables that should be indexed - index in list is "official" index */
-    private ArrayList<AbstractReusable> indexedReusables = new ArrayList<AbstractReusable>(INITIAL_REUSABLES_INDEX_SIZE);
+    /** Next unused index at end of table (first element is null element) */
+    private final AtomicInteger nextIndex = new AtomicInteger(1);
 
-    /** Queue with free(d) slots in indexedReusables, TODO: needn't be concurrent */
-    private ArrayDeque<Integer> freeSlotQueue = new ArrayDeque<Integer>();
+    /** Head of stack with free(d) slots in indexedReusables - [32bit stamp][32bit index] - index 0 means stack is empty */
+    private final AtomicLong freeSlotStack = new AtomicLong(0);
 
     /** "Lock" on log domain registry - to prevent domains from being deallocated before AllocationRegister */
     @SuppressWarnings("unused")
@@ -117,37 +132,60 @@ public class AllocationRegister {
 
     /**
      * Acquire index for reusable object
+     * (Is thread safe and lock-free)
      *
      * @param reusable Reusable object
      * @return Index/Handle in register
      */
     int indexReusable(AbstractReusable reusable) {
-        synchronized (indexedReusables) {
-            if (indexedReusables.size() == 0) {
-                indexedReusables.add(null); // first element should be null element
-            }
+        int index = popFreeSlot();
+        if (index == 0) {
+            index = nextIndex.getAndIncrement();
+            assert(index > 0) : "Register is full";
+        }
+        getSegment(index).entries.lazySet(index & SEGMENT_MASK, reusable); // object is published to other threads with proper synchronization anyway
+        return index;
+    }
 
-            boolean empty = freeSlotQueue.isEmpty();
-            if (!empty) {
-                Integer free = freeSlotQueue.pop();
-                indexedReusables.set(free, reusable);
-                return free;
-            } else {
-                indexedReusables.add(reusable);
-                return indexedReusables.size() - 1;
+    /**
+     * Acquire indices for a batch of reusable objects - with a single atomic operation.
+     * The reusables get a contiguous block of indices (in array order).
+     * This is meant e.g. for warming up pools with reusables that do not register themselves:
+     * Registering them then needs no further synchronization in the register - and their indices are adjacent (better locality).
+     * (Is thread safe and lock-free)
+     *
+     * @param reusables Reusable objects to register (must not be registered for an index yet)
+     * @throws IllegalStateException If any of the reusables has already been registered for an index (then, none of them is registered)
+     */
+    public void registerForIndex(AbstractReusable[] reusables) {
+        if (reusables.length == 0) {
+            return;
+        }
+        for (AbstractReusable r : reusables) {
+            if (r.getRegisterIndex() >= 0) {
+                throw new IllegalStateException("Reusable has already been registered for index " + r.getRegisterIndex());
             }
         }
+        int first = nextIndex.getAndAdd(reusables.length);
+        assert(first > 0 && first + reusables.length > 0) : "Register is full";
+        for (int i = 0; i < reusables.length; i++) {
+            int index = first + i;
+            reusables[i].setRegisterIndex(index);
+            getSegment(index).entries.lazySet(index & SEGMENT_MASK, reusables[i]);
+        }
     }
 
     /**
      * Get Reusable object from register by index
+     * (Is thread safe and does not need any locks)
      *
      * @param index Index of Reusable
-     * @return Reusable
+     * @return Reusable - null if there is no reusable with this index
      */
     public static AbstractReusable getByIndex(int index) {
         assert(rawInstance != null);
-        return rawInstance.indexedReusables.get(index);
+        Segment segment = rawInstance.indexedReusables.get(index >>> SEGMENT_BITS);
+        return segment == null ? null : segment.entries.get(index & SEGMENT_MASK);
     }
 
     /**
@@ -161,15 +199,78 @@ public class AllocationRegister {
 
         if (r.getRegisterIndex() >= 0) {
             int idx = r.getRegisterIndex();
-            synchronized (rawInstance.indexedReusables) {
-                rawInstance.indexedReusables.set(idx, null);
-                rawInstance.freeSlotQueue.push(idx);
-            }
+            rawInstance.getSegment(idx).entries.lazySet(idx & SEGMENT_MASK, null);
+            rawInstance.pushFreeSlot(idx);
         }
 
         rawInstance.reusables.decrementAndGet();
     }
 
+    /**
+     * @param index Index in register
+     * @return Segment that contains index (is created if it does not exist yet)
+     */
+    private Segment getSegment(int index) {
+        int segmentIndex = index >>> SEGMENT_BITS;
+        Segment segment = indexedReusables.get(segmentIndex);
+        if (segment == null) {
+            Segment newSegment = new Segment();
+            if (indexedReusables.compareAndSet(segmentIndex, null, newSegment)) {
+                Log.log(LogLevel.DEBUG_VERBOSE_1, this, "Allocated segment " + segmentIndex + " of reusables register");
+                return newSegment;
+            }
+            segment = indexedReusables.get(segmentIndex); // another thread was faster
+        }
+        return segment;
+    }
+
+    /**
+     * Push slot on stack with free slots
+     *
+     * @param index Index of free slot
+     */
+    private void pushFreeSlot(int index) {
+        Segment segment = getSegment(index);
+        while (true) {
+            long head = freeSlotStack.get();
+            segment.nextFree.set(index & SEGMENT_MASK, (int)head);
+            if (freeSlotStack.compareAndSet(head, (((head >>> 32) + 1) << 32) | index)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pop slot from stack with free slots
+     *
+     * @return Index of free slot - 0 if there is none
+     */
+    private int popFreeSlot() {
+        while (true) {
+            long head = freeSlotStack.get();
+            int index = (int)head;
+            if (index == 0) {
+                return 0;
+            }
+            int next = getSegment(index).nextFree.get(index & SEGMENT_MASK); // may be outdated - then stamp has changed and CAS fails
+            if (freeSlotStack.compareAndSet(head, (((head >>> 32) + 1) << 32) | next)) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Segment of register with indexed reusables
+     */
+    private static class Segment {
+
+        /** Reusables in this segment */
+        private final AtomicReferenceArray<AbstractReusable> entries = new AtomicReferenceArray<AbstractReusable>(SEGMENT_SIZE);
+
+        /** Next free slot for each free slot in this segment (links stack with free slots) */
+        private final AtomicIntegerArray nextFree = new AtomicIntegerArray(SEGMENT_SIZE);
+    }
+
     /**
      * Interpret number of allocated objects
      *
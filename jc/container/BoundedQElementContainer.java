@@ -68,11 +68,25 @@ public abstract class BoundedQElementContainer extends Reusable {
     /** Reuse Counter */
     protected int reuseCounter = 0;
 
+    /** Time of enqueueing (System.nanoTime()) - only set if queue tracks age (see QueueStatistics) */
+    long enqueueTime;
+
     /** Next element in queue */
     public final AtomicReference<BoundedQElementContainer> next2 = new AtomicReference<BoundedQElementContainer>(getDummy(0));
 
     protected BoundedQElementContainer() {
-        registerForIndex(); // bounded queue requires containers to be registered
+        this(true);
+    }
+
+    /**
+     * @param registerForIndex Register container for index now? (bounded queue requires containers to be registered -
+     *                         if false, container needs to be registered before it is used, e.g. en bloc with
+     *                         AbstractReusablesPool.preallocate(count, factory, true))
+     */
+    protected BoundedQElementContainer(boolean registerForIndex) {
+        if (registerForIndex) {
+            registerForIndex();
+        }
     }
 
     /**
@@ -0,0 +1,168 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.container;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/**
+ * @author Max Reichardt
+ *
+ * Statistics of a pool of reusable objects (see AbstractReusablesPool.enableStatistics()).
+ *
+ * Counters are striped (LongAdder) - since objects are typically recycled
+ * by many threads. Reading them from other threads provides
+ * (slightly outdated) estimates - good enough for monitoring.
+ *
+ * Statistics of each pool are available as separate MBean via JMX (see PoolStatisticsRegistry.registerMBean()).
+ *
+ * Objects may outlive their pool: When the pool is deleted, its objects get an owner that deletes them
+ * when they are recycled - and records this in the pool's statistics. The statistics remain registered
+ * until all objects are recycled (see PoolStatisticsRegistry.retire()).
+ */
+public class PoolStatistics implements PoolStatisticsMXBean {
+
+    /** Name of pool (for reports) */
+    private final String name;
+
+    /** Name under which these statistics are registered at platform MBean server - null if they are not registered (see PoolStatisticsRegistry) */
+    ObjectName objectName;
+
+    /** Number of objects currently attached to pool */
+    final LongAdder attached = new LongAdder();
+
+    /** Number of objects that were created for (attached to) pool in total */
+    final LongAdder created = new LongAdder();
+
+    /** Number of objects obtained from pool (including attached objects that were used directly) */
+    final LongAdder obtained = new LongAdder();
+
+    /** Number of objects recycled to pool */
+    final LongAdder recycled = new LongAdder();
+
+    /** Number of times the pool had no unused object (getUnused() returned null) */
+    final LongAdder misses = new LongAdder();
+
+    /** Number of objects that were recycled after pool had been deleted (and were deleted) */
+    final LongAdder recycledAfterPoolDeleted = new LongAdder();
+
+    /** Number of objects that were deleted, because pool had reached its maximum size when they were attached */
+    final LongAdder deletedBecausePoolFull = new LongAdder();
+
+    /** Owner of objects after pool has been deleted (see AbstractReusablesPool.getDeletedPoolOwner()) */
+    final ReusableOwner deletedPoolOwner = new DeletingOwner(recycledAfterPoolDeleted);
+
+    /** Owner of objects that were used directly, but not attached - because pool was full (see AbstractReusablesPool.rejectAttach()) */
+    final ReusableOwner poolFullOwner = new DeletingOwner(deletedBecausePoolFull);
+
+    /** Has pool been deleted? (statistics are removed from registry as soon as no objects are in use anymore) */
+    volatile boolean poolDeleted;
+
+    /**
+     * @param name Name of pool (for reports)
+     */
+    public PoolStatistics(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getAttached() {
+        return attached.sum();
+    }
+
+    @Override
+    public long getCreated() {
+        return created.sum();
+    }
+
+    @Override
+    public long getObtained() {
+        return obtained.sum();
+    }
+
+    @Override
+    public long getRecycled() {
+        return recycled.sum();
+    }
+
+    @Override
+    public long getInUse() {
+        return Math.max(0, obtained.sum() - recycled.sum() - recycledAfterPoolDeleted.sum());
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getRecycledAfterPoolDeleted() {
+        return recycledAfterPoolDeleted.sum();
+    }
+
+    @Override
+    public long getDeletedBecausePoolFull() {
+        return deletedBecausePoolFull.sum();
+    }
+
+    @Override
+    public boolean isPoolDeleted() {
+        return poolDeleted;
+    }
+
+    public String toString() {
+        return name + (poolDeleted ? " (deleted)" : "") + ": attached: " + getAttached() + " created: " + getCreated() + " in use: " + getInUse() + " obtained: " + getObtained() +
+               " recycled: " + getRecycled() + " misses: " + getMisses() + " recycled after delete: " + getRecycledAfterPoolDeleted() + " deleted (pool full): " + getDeletedBecausePoolFull();
+    }
+
+    /**
+     * Owner of objects without pool:
+     * Deletes recycled objects - and counts them
+     */
+    private class DeletingOwner implements ReusableOwner {
+
+        /** Counter for deleted objects */
+        private final LongAdder counter;
+
+        /**
+         * @param counter Counter for deleted objects
+         */
+        private DeletingOwner(LongAdder counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void enqueueRaw(Queueable pd) {
+            counter.increment();
+            if (poolDeleted && getInUse() == 0) {
+                PoolStatisticsRegistry.remove(PoolStatistics.this);
+            }
+            ((AbstractReusable)pd).deleteThis(); // IMPORTANT: last statement in method
+        }
+    }
+}
@@ -0,0 +1,80 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.container;
+
+/**
+ * @author Max Reichardt
+ *
+ * JMX interface of PoolStatistics (one MBean per pool - see PoolStatisticsRegistry.registerMBean())
+ */
+public interface PoolStatisticsMXBean {
+
+    /**
+     * @return Name of pool
+     */
+    public String getName();
+
+    /**
+     * @return Number of objects currently attached to pool
+     */
+    public long getAttached();
+
+    /**
+     * @return Number of objects that were created for (attached to) pool in total
+     */
+    public long getCreated();
+
+    /**
+     * @return Number of objects obtained from pool (including attached objects that were used directly)
+     */
+    public long getObtained();
+
+    /**
+     * @return Number of objects recycled to pool
+     */
+    public long getRecycled();
+
+    /**
+     * @return Number of objects that are currently in use (estimate)
+     */
+    public long getInUse();
+
+    /**
+     * @return Number of times the pool had no unused object (getUnused() returned null)
+     */
+    public long getMisses();
+
+    /**
+     * @return Number of objects that were recycled after pool had been deleted (and were deleted)
+     */
+    public long getRecycledAfterPoolDeleted();
+
+    /**
+     * @return Number of objects that were deleted, because pool had reached its maximum size when they were attached
+     */
+    public long getDeletedBecausePoolFull();
+
+    /**
+     * @return Has pool been deleted? (statistics remain available until all its objects have been recycled)
+     */
+    public boolean isPoolDeleted();
+}
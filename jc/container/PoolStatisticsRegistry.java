@@ -0,0 +1,178 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.container;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.rrlib.logging.Log;
+import org.rrlib.logging.LogLevel;
+
+/**
+ * @author Max Reichardt
+ *
+ * Registry of the statistics of all pools that record statistics.
+ *
+ * Contents can be obtained via snapshot() - or via JMX after calling registerMBean()
+ * (then, there is one MBean with numeric attributes per pool - and the registry MBean with a text summary).
+ */
+public class PoolStatisticsRegistry implements PoolStatisticsRegistryMXBean {
+
+    /** Name under which registry is registered at platform MBean server */
+    public static final String MBEAN_NAME = "org.rrlib.finroc_core_utils:type=PoolStatisticsRegistry";
+
+    /** Domain and type of the MBeans of the individual pools (their key 'name' is the name of the pool) */
+    public static final String POOL_MBEAN_TYPE = "org.rrlib.finroc_core_utils:type=PoolStatistics";
+
+    /** Maximum number of deleted pools whose statistics are kept while some of their objects are still in use (statistics of the oldest are removed first) */
+    public static final int MAX_DELETED_POOLS = 32;
+
+    /** Statistics of all pools that record statistics */
+    private static final CopyOnWriteArrayList<PoolStatistics> statistics = new CopyOnWriteArrayList<PoolStatistics>();
+
+    /** Singleton instance (registered at MBean server) */
+    private static final PoolStatisticsRegistry instance = new PoolStatisticsRegistry();
+
+    /** Register statistics of pools at MBean server? (true after registerMBean() has been called) */
+    private static boolean registerPoolMBeans;
+
+    private PoolStatisticsRegistry() {}
+
+    /**
+     * @param stats Statistics to add to registry
+     */
+    static synchronized void add(PoolStatistics stats) {
+        if (statistics.addIfAbsent(stats) && registerPoolMBeans) {
+            registerPoolMBean(stats);
+        }
+    }
+
+    /**
+     * @param stats Statistics to remove from registry
+     */
+    static synchronized void remove(PoolStatistics stats) {
+        if (statistics.remove(stats) && stats.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(stats.objectName);
+            } catch (Exception e) {
+                Log.log(LogLevel.WARNING, instance, e);
+            }
+            stats.objectName = null;
+        }
+    }
+
+    /**
+     * Called when pool is deleted:
+     * Its statistics are removed as soon as all its objects have been recycled
+     * (or when statistics of more than MAX_DELETED_POOLS deleted pools are registered)
+     *
+     * @param stats Statistics of deleted pool
+     */
+    static synchronized void retire(PoolStatistics stats) {
+        stats.poolDeleted = true;
+        if (stats.getInUse() == 0) {
+            remove(stats);
+            return;
+        }
+        int deletedPools = 0;
+        for (int i = statistics.size() - 1; i >= 0; i--) {
+            PoolStatistics s = statistics.get(i);
+            if (s.poolDeleted) {
+                deletedPools++;
+                if (deletedPools > MAX_DELETED_POOLS) {
+                    remove(s);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Statistics of all pools that currently record statistics
+     */
+    public static List<PoolStatistics> getAll() {
+        return new ArrayList<PoolStatistics>(statistics);
+    }
+
+    /**
+     * @return One line per registered pool with its current statistics
+     */
+    public static String[] snapshot() {
+        ArrayList<String> result = new ArrayList<String>();
+        for (PoolStatistics stats : statistics) {
+            result.add(stats.toString());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Register registry at platform MBean server (see MBEAN_NAME) -
+     * as well as the statistics of every pool (now and in the future) as separate MBean (see POOL_MBEAN_TYPE)
+     * (does nothing if it is already registered)
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(instance, name);
+            }
+        } catch (Exception e) {
+            Log.log(LogLevel.WARNING, instance, e);
+        }
+        if (!registerPoolMBeans) {
+            registerPoolMBeans = true;
+            for (PoolStatistics stats : statistics) {
+                registerPoolMBean(stats);
+            }
+        }
+    }
+
+    /**
+     * Register statistics of pool at platform MBean server
+     * (if there already is a pool with the same name, a number is appended to the name)
+     *
+     * @param stats Statistics of pool
+     */
+    private static void registerPoolMBean(PoolStatistics stats) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(POOL_MBEAN_TYPE + ",name=" + ObjectName.quote(stats.getName()));
+            for (int i = 2; server.isRegistered(name); i++) {
+                name = new ObjectName(POOL_MBEAN_TYPE + ",name=" + ObjectName.quote(stats.getName() + " #" + i));
+            }
+            server.registerMBean(stats, name);
+            stats.objectName = name;
+        } catch (Exception e) {
+            Log.log(LogLevel.WARNING, instance, e);
+        }
+    }
+
+    @Override
+    public String[] getPoolStatistics() {
+        return snapshot();
+    }
+}
@@ -48,13 +48,27 @@ public class QueueFragment<T, C extends BoundedQElementContainer> {
     /** Skip first/next element */
     public boolean skipFirst = false;
 
+    /** Statistics of queue that elements were dequeued from - null if disabled */
+    QueueStatistics statistics = null;
+
     /**
      * Dequeue one element
      *
      * @return Next element in QueueFragment - null when there's none
      */
-    @SuppressWarnings("unchecked")
     public T dequeue() {
+        T result = dequeueElement();
+        if (result != null && statistics != null) {
+            statistics.dequeued++;
+        }
+        return result;
+    }
+
+    /**
+     * Helper method for above
+     */
+    @SuppressWarnings("unchecked")
+    private T dequeueElement() {
         C n2 = next;
         if (last == null) {
             return null;
@@ -66,6 +80,9 @@ public class QueueFragment<T, C extends BoundedQElementContainer> {
             BoundedQElementContainer nextX = n2.next2.get();
             if (nextX.isDummy()) {
                 // rare preemption case: find next element from the back
+                if (statistics != null) {
+                    statistics.rarePreemptions++;
+                }
 
                 if (n2 == lastPrev) {
                     next = last;
@@ -89,7 +106,7 @@ public class QueueFragment<T, C extends BoundedQElementContainer> {
         n2.recycle(false);
         if (result == null || skipFirst) {
             skipFirst = false;
-            result = (T)dequeue();
+            result = dequeueElement();
         }
         return result;
     }
@@ -0,0 +1,108 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.container;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Max Reichardt
+ *
+ * Statistics of a bounded wonder queue (see WonderQueueBounded.setStatistics()).
+ *
+ * Counters that multiple writers update are striped (LongAdder) - so producers
+ * do not contend on a single cache line. Counters that are only updated by the
+ * reader thread are plain fields. Reading them from other threads provides
+ * (slightly outdated) estimates - good enough for monitoring.
+ */
+public class QueueStatistics {
+
+    /** Number of enqueued elements (updated by writers) */
+    final LongAdder enqueued = new LongAdder();
+
+    /** Number of elements that were dropped, because queue exceeded its maximum length (updated by writers) */
+    final LongAdder dropped = new LongAdder();
+
+    /** Number of dequeued elements (updated by reader) */
+    long dequeued;
+
+    /** Number of retried dequeue operations, due to concurrent modification of queue (updated by reader) */
+    long dequeueRetries;
+
+    /** Number of "rare preemption cases" in QueueFragment.dequeue() (updated by reader) */
+    long rarePreemptions;
+
+    /** Record time of enqueueing for each element? (enables WonderQueueBounded.getAge()) */
+    final boolean trackAge;
+
+    /**
+     * @param trackAge Record time of enqueueing for each element? (enables WonderQueueBounded.getAge() - costs a System.nanoTime() call per enqueued element)
+     */
+    public QueueStatistics(boolean trackAge) {
+        this.trackAge = trackAge;
+    }
+
+    /**
+     * @return Number of enqueued elements
+     */
+    public long getEnqueued() {
+        return enqueued.sum();
+    }
+
+    /**
+     * @return Number of elements that were dropped, because queue exceeded its maximum length
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Number of dequeued elements
+     */
+    public long getDequeued() {
+        return dequeued;
+    }
+
+    /**
+     * @return Number of retried dequeue operations, due to concurrent modification of queue
+     */
+    public long getDequeueRetries() {
+        return dequeueRetries;
+    }
+
+    /**
+     * @return Number of "rare preemption cases" in QueueFragment.dequeue() (next element was not linked yet)
+     */
+    public long getRarePreemptions() {
+        return rarePreemptions;
+    }
+
+    /**
+     * @return Is time of enqueueing recorded for each element?
+     */
+    public boolean isTrackingAge() {
+        return trackAge;
+    }
+
+    public String toString() {
+        return "enqueued: " + getEnqueued() + " dropped: " + getDropped() + " dequeued: " + dequeued + " retries: " + dequeueRetries + " rare preemptions: " + rarePreemptions;
+    }
+}
@@ -21,6 +21,7 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.container;
 
+import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
 
 /**
  * @author Max Reichardt
@@ -49,4 +50,18 @@ public class Queueable {
 
     /** Delete method */
     public void delete() {}
+
+    /**
+     * Link elements in array wrapper to a chain (in array order) - as required by enqueueChain() methods of queues.
+     * (not thread safe - elements may not be enqueued in any queue)
+     *
+     * @param elements Elements to link (there must be at least one)
+     */
+    static void linkChain(ArrayWrapper <? extends Queueable > elements) {
+        int last = elements.size() - 1;
+        for (int i = 0; i < last; i++) {
+            elements.get(i).next = elements.get(i + 1);
+        }
+        elements.get(last).next = null;
+    }
 }
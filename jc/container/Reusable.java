@@ -30,18 +30,18 @@ package org.rrlib.finroc_core_utils.jc.container;
 public class Reusable extends AbstractReusable {
 
     /**
-     * Pool that owns this data - null if doesn't exist anymore -
+     * Pool that owns this data - null (or owner that deletes recycled objects, if pool records statistics) if doesn't exist anymore -
      * in this case this Reusable will be deleted when recycled
      * shouldn't need to be volatile, since owner deletion is deferred
      */
-    protected RawWonderQueueFast owner;
+    protected ReusableOwner owner;
 
     /** Next element in this buffer pool - new elements are prepended  - set to null, when pool is deleted */
     protected Reusable nextInBufferPool;
 
     /** Recycle object - after calling this method, object is available in ReusablesPool it originated from */
     protected void recycle() {
-        RawWonderQueueFast o = owner;
+        ReusableOwner o = owner;
         assert(stateChange((byte)(Reusable.UNKNOWN | Reusable.USED | POST_QUEUED), Reusable.RECYCLED, owner));
         if (o != null) {
             owner.enqueueRaw(this);
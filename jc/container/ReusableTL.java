@@ -31,10 +31,10 @@ package org.rrlib.finroc_core_utils.jc.container;
 public class ReusableTL extends AbstractReusable {
 
     /**
-     * Pool that owns this data - null if doesn't exist anymore -
+     * Pool that owns this data - null (or owner that deletes recycled objects, if pool records statistics) if doesn't exist anymore -
      * in this case this Reusable will be deleted when recycled
      */
-    protected RawWonderQueueTL owner;
+    protected ReusableOwner owner;
 
     /** Next element in this buffer pool - new elements are prepended  - set to null, when pool is deleted */
     protected ReusableTL nextInBufferPool;
@@ -42,10 +42,14 @@ public class ReusableTL extends AbstractReusable {
     /**
      * Recycle object - after calling this method, object is available in ReusablesPool it originated from
      * Will only be called in while thread is running. And owner will exists during this time.
+     * (Owner is null - or deletes the object - however, if object was not attached, because pool reached its maximum size)
      */
     protected void recycle() {
         assert(stateChange((byte)(Reusable.UNKNOWN | Reusable.USED | POST_QUEUED), Reusable.RECYCLED, owner));
-        assert(owner != null); // method should only be callable while owner exists (?)
-        owner.enqueueRaw(this);
+        if (owner != null) {
+            owner.enqueueRaw(this);
+        } else {
+            deleteThis(); // IMPORTANT: last statement in method
+        }
     }
 }
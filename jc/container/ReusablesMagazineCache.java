@@ -0,0 +1,289 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.container;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import org.rrlib.finroc_core_utils.jc.thread.SpinLock;
+
+/**
+ * @author Max Reichardt
+ *
+ * Per-thread magazine cache in front of a ReusablesPoolCR (as in slab allocators).
+ *
+ * Each thread keeps two small stacks ("magazines") of recycled objects.
+ * Getting and recycling objects only touches these - until the magazines are empty or full.
+ * Then, whole magazines are exchanged with a shared depot (protected by a spin lock).
+ * So most get/recycle pairs do not touch any shared cache line.
+ * Magazines in the depot are either full or empty.
+ *
+ * Reusables of a pool with magazine cache use this object as owner - so that recycle() puts them in the magazines.
+ *
+ * Drawback: Objects in magazines of other threads are not available to a thread.
+ * Magazines of terminated threads are returned to the depot, when the depot runs out of full magazines (or pool is trimmed).
+ *
+ * Thread-local magazines do not reference this cache. Once deleteCached() has emptied them, the thread-local entries
+ * of all threads become stale when this cache is garbage collected - so they do not keep cache, pool or pooled objects alive.
+ */
+class ReusablesMagazineCache<T extends Reusable> implements ReusableOwner {
+
+    /** Pool that this cache belongs to (records statistics - its shared queues contain objects that were enqueued directly) */
+    private final ReusablesPoolCR<T> pool;
+
+    /** Number of objects per magazine */
+    private final int magazineSize;
+
+    /** Depot: full and empty magazines that are currently not used by any thread (protected by depotLock) */
+    private final ArrayList<Magazine> fullMagazines = new ArrayList<Magazine>(), emptyMagazines = new ArrayList<Magazine>();
+
+    /** Magazines of all threads that used this cache - and have not been found terminated yet (protected by depotLock) */
+    private final ArrayList<ThreadMagazines> allThreadMagazines = new ArrayList<ThreadMagazines>();
+
+    /** Lock for depot */
+    private final SpinLock depotLock = new SpinLock();
+
+    /** Magazines of current thread */
+    private final ThreadLocal<ThreadMagazines> threadMagazines = new ThreadLocal<ThreadMagazines>();
+
+    /**
+     * @param pool Pool that this cache belongs to
+     * @param magazineSize Number of objects per magazine
+     */
+    ReusablesMagazineCache(ReusablesPoolCR<T> pool, int magazineSize) {
+        assert(magazineSize > 0);
+        this.pool = pool;
+        this.magazineSize = magazineSize;
+    }
+
+    /**
+     * Called when reusable is recycled (Reusable.recycle())
+     *
+     * @param pd Recycled reusable
+     */
+    @Override
+    public void enqueueRaw(Queueable pd) {
+        pool.recordRecycle();
+        ThreadMagazines tm = getThreadMagazines();
+        if (tm.loaded.size == magazineSize) {
+            if (tm.previous.size < magazineSize) {
+                tm.swap();
+            } else {
+
+                // exchange full magazine for empty one
+                depotLock.lock();
+                fullMagazines.add(tm.previous);
+                Magazine empty = emptyMagazines.isEmpty() ? null : emptyMagazines.remove(emptyMagazines.size() - 1);
+                depotLock.release();
+                tm.previous = tm.loaded;
+                tm.loaded = (empty != null) ? empty : new Magazine(magazineSize);
+            }
+        }
+        tm.loaded.push((Reusable)pd);
+    }
+
+    /**
+     * @return Unused reusable - null if there is none (in magazines of this thread, depot or shared queue)
+     */
+    @SuppressWarnings("unchecked")
+    T getUnused() {
+        ThreadMagazines tm = getThreadMagazines();
+        if (tm.loaded.size == 0) {
+            if (tm.previous.size > 0) {
+                tm.swap();
+            } else {
+
+                // exchange empty magazine for full one
+                depotLock.lock();
+                if (fullMagazines.isEmpty()) {
+                    reclaimMagazinesOfTerminatedThreads();
+                }
+                Magazine full = fullMagazines.isEmpty() ? null : fullMagazines.remove(fullMagazines.size() - 1);
+                if (full != null) {
+                    emptyMagazines.add(tm.previous);
+                }
+                depotLock.release();
+                if (full == null) {
+                    return pool.dequeueShared();
+                }
+                tm.previous = tm.loaded;
+                tm.loaded = full;
+            }
+        }
+        return (T)tm.loaded.pop();
+    }
+
+    /**
+     * @return Magazines of current thread (created on first access)
+     */
+    private ThreadMagazines getThreadMagazines() {
+        ThreadMagazines tm = threadMagazines.get();
+        if (tm == null) {
+            tm = new ThreadMagazines(magazineSize);
+            depotLock.lock();
+            allThreadMagazines.add(tm);
+            depotLock.release();
+            threadMagazines.set(tm);
+        }
+        return tm;
+    }
+
+    /**
+     * Take one object from a full magazine in the depot (used when shrinking pool).
+     * The remaining objects of this magazine are moved to the pool's shared queue.
+     *
+     * @return Unused reusable from depot - null if depot contains no full magazines
+     */
+    Reusable removeFromDepot() {
+        depotLock.lock();
+        reclaimMagazinesOfTerminatedThreads();
+        Magazine m = fullMagazines.isEmpty() ? null : fullMagazines.remove(fullMagazines.size() - 1);
+        Reusable result = null;
+        if (m != null) {
+            result = m.pop();
+            while (m.size > 0) {
+                pool.enqueueShared(m.pop());
+            }
+            emptyMagazines.add(m);
+        }
+        depotLock.release();
+        return result;
+    }
+
+    /**
+     * Return magazines of terminated threads to the depot
+     * (depotLock needs to be acquired; full magazines are added to depot, objects in partially filled magazines to the pool's shared queue)
+     */
+    private void reclaimMagazinesOfTerminatedThreads() {
+        for (int i = allThreadMagazines.size() - 1; i >= 0; i--) {
+            ThreadMagazines tm = allThreadMagazines.get(i);
+            Thread thread = tm.thread.get();
+            if (thread == null || !thread.isAlive()) { // thread has terminated: its magazines are not accessed anymore (and all its writes are visible)
+                allThreadMagazines.remove(i);
+                reclaim(tm.loaded);
+                reclaim(tm.previous);
+            }
+        }
+    }
+
+    /**
+     * Return magazine of terminated thread to the depot
+     *
+     * @param m Magazine
+     */
+    private void reclaim(Magazine m) {
+        if (m.size == magazineSize) {
+            fullMagazines.add(m);
+            return;
+        }
+        while (m.size > 0) {
+            pool.enqueueShared(m.pop());
+        }
+        emptyMagazines.add(m);
+    }
+
+    /**
+     * Delete all objects in depot and in magazines of all threads
+     * (Pool must not be used anymore - e.g. after controlledDelete())
+     *
+     * Afterwards, no thread-local magazines reference any pooled objects (which reference this cache as their owner).
+     * The thread-local entry of the calling thread is removed - entries of other threads become stale, when this cache is garbage collected.
+     */
+    void deleteCached() {
+        depotLock.lock();
+        for (ThreadMagazines tm : allThreadMagazines) {
+            fullMagazines.add(tm.loaded);
+            fullMagazines.add(tm.previous);
+            tm.loaded = new Magazine(magazineSize);
+            tm.previous = new Magazine(magazineSize);
+        }
+        allThreadMagazines.clear();
+        for (Magazine m : fullMagazines) {
+            while (m.size > 0) {
+                m.pop().delete();
+            }
+        }
+        fullMagazines.clear();
+        emptyMagazines.clear();
+        depotLock.release();
+        threadMagazines.remove();
+    }
+
+    /**
+     * Stack of reusables
+     */
+    private static class Magazine {
+
+        /** Objects in magazine */
+        private final Reusable[] rounds;
+
+        /** Number of objects in magazine */
+        private int size;
+
+        private Magazine(int capacity) {
+            rounds = new Reusable[capacity];
+        }
+
+        private void push(Reusable r) {
+            rounds[size] = r;
+            size++;
+        }
+
+        private Reusable pop() {
+            size--;
+            Reusable r = rounds[size];
+            rounds[size] = null;
+            return r;
+        }
+    }
+
+    /**
+     * Magazines of one thread
+     * (static and without reference to cache - so that thread-local entries do not keep cache alive)
+     */
+    private static class ThreadMagazines {
+
+        /** Thread that these magazines belong to (weak reference, so that cache does not keep terminated threads alive) */
+        private final WeakReference<Thread> thread = new WeakReference<Thread>(Thread.currentThread());
+
+        /** Magazine that objects are taken from and put into */
+        private Magazine loaded;
+
+        /** Previously loaded magazine (avoids exchanging magazines with the depot too often at magazine boundaries) */
+        private Magazine previous;
+
+        /**
+         * @param magazineSize Number of objects per magazine
+         */
+        private ThreadMagazines(int magazineSize) {
+            loaded = new Magazine(magazineSize);
+            previous = new Magazine(magazineSize);
+        }
+
+        /** Swap loaded and previous magazine */
+        private void swap() {
+            Magazine tmp = loaded;
+            loaded = previous;
+            previous = tmp;
+        }
+    }
+}
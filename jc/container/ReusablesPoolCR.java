@@ -22,6 +22,8 @@
 package org.rrlib.finroc_core_utils.jc.container;
 
 import org.rrlib.finroc_core_utils.jc.GarbageCollector;
+import org.rrlib.finroc_core_utils.jc.Time;
+import org.rrlib.finroc_core_utils.jc.thread.Task;
 
 /**
  * @author Max Reichardt
@@ -40,11 +42,69 @@ import org.rrlib.finroc_core_utils.jc.GarbageCollector;
  * should be called (the pool will take care of the rest).
  * - The owningPool field of its element will be set to NULL
  * - It will be deleted deferred (by the garbage collector to avoid dangerous race conditions)
+ *
+ * Optionally, a per-thread magazine cache can be put in front of the pool (see ReusablesMagazineCache).
+ * Then, most get/recycle operations do not touch any shared variables.
+ * It is disabled by default: It only pays off if many threads get and recycle objects of the same pool
+ * concurrently - otherwise, the additional thread-local lookup makes the pool slower.
+ *
+ * Without magazine cache, the pool can be split into several wrapped queues ("stripes").
+ * A recycling thread enqueues objects to the stripe selected by its thread hash - so that
+ * recycling threads do not all contend on the same queue. getUnused() tries the stripe
+ * of the calling thread first - and then steals from the other stripes.
+ *
+ * With enableShrinking(), the garbage collector thread periodically removes unused objects
+ * from the pool - if no object was missing in the pool for some time.
  */
 public class ReusablesPoolCR<T extends Reusable> extends AbstractReusablesPool<T> {
 
-    /** Wrapped Queue */
-    private WonderQueueFastCR<T> wrapped = new WonderQueueFastCR<T>();
+    /** Wrapped Queues ("stripes" - number is a power of two) */
+    private final PoolQueue[] stripes;
+
+    /** Number of stripes - 1 */
+    private final int stripeMask;
+
+    /** Owner of attached objects (magazine cache, stripe selector or the single wrapped queue) */
+    private final ReusableOwner objectOwner;
+
+    /** Per-thread magazine cache - null if disabled */
+    private final ReusablesMagazineCache<T> magazines;
+
+    /** Time (see Time.getCoarse()) when getUnused() last returned null */
+    private volatile long lastMissTime;
+
+    /** Task that shrinks pool - null if shrinking is disabled */
+    private ShrinkTask shrinkTask;
+
+    public ReusablesPoolCR() {
+        this(0, 1);
+    }
+
+    /**
+     * @param magazineSize Number of objects per magazine in per-thread magazine cache (0 disables magazine cache)
+     */
+    public ReusablesPoolCR(int magazineSize) {
+        this(magazineSize, 1);
+    }
+
+    /**
+     * @param magazineSize Number of objects per magazine in per-thread magazine cache (0 disables magazine cache)
+     * @param stripeCount Number of wrapped queues that recycled objects are distributed among (rounded up to a power of two - 1 disables striping)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ReusablesPoolCR(int magazineSize, int stripeCount) {
+        int count = 1;
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+        stripes = new ReusablesPoolCR.PoolQueue[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new PoolQueue();
+        }
+        stripeMask = count - 1;
+        magazines = (magazineSize > 0) ? new ReusablesMagazineCache<T>(this, magazineSize) : null;
+        objectOwner = (magazines != null) ? magazines : ((count > 1) ? new StripeSelector() : stripes[0]);
+    }
 
     /**
      * Attaches (and enqueues) a Reusable object to this pool.
@@ -53,31 +113,170 @@ public class ReusablesPoolCR<T extends Reusable> extends AbstractReusablesPool<T
      * The method is typically called during initialization of a Reusable.
      *
      * Should only be called by owner thread.
+     * If the pool has reached its maximum size, the object is not attached (see tryAttach()).
      *
      * @param r Reusable to attach and enqueue
      * @param enqueueNow Enqueue attached element or use directly?
      */
     public void attach(T r, boolean enqueueNow) {
+        tryAttach(r, enqueueNow);
+    }
+
+    /**
+     * Attaches (and enqueues) a Reusable object to this pool - if pool has not reached its maximum size.
+     * The object will be returned to the pool when recycled.
+     * If the pool has reached its maximum size, the object is deleted instead - immediately if it was meant to be enqueued, otherwise when it is recycled.
+     *
+     * Should only be called by owner thread.
+     *
+     * @param r Reusable to attach and enqueue
+     * @param enqueueNow Enqueue attached element or use directly?
+     * @return True if object was attached - false if pool has reached its maximum size
+     */
+    @Override
+    public boolean tryAttach(T r, boolean enqueueNow) {
         assert r.nextInBufferPool == null;
         assert r.owner == null;
-        r.nextInBufferPool = lastCreated;
-        lastCreated = r;
-        r.owner = wrapped;
+        int stripe;
+        synchronized (this) { // trim() may be called by garbage collector thread concurrently
+            if (!attachAllowed()) {
+                r.owner = rejectAttach(r, enqueueNow);
+                return false;
+            }
+            r.nextInBufferPool = lastCreated;
+            lastCreated = r;
+            stripe = attachedCount & stripeMask; // distribute attached objects evenly among stripes
+            attachedCount++;
+            r.owner = objectOwner;
+        }
         allocationRegisterLock.trackReusable(r);
+        recordAttach(!enqueueNow);
         if (enqueueNow) {
-            wrapped.enqueue(r);
+            stripes[stripe].enqueueAttached(r);
         }
+        return true;
     }
 
     /**
      * @return Element from pool - or null, if all are currently in use
      */
     public T getUnused() {
-        T result = wrapped.dequeue();
-        assert(result == null || result.stateChange((byte)(Reusable.UNKNOWN | Reusable.RECYCLED), Reusable.USED, wrapped));
+        T result = (magazines != null) ? magazines.getUnused() : dequeueShared();
+        if (result == null) {
+            lastMissTime = Time.getCoarse();
+        }
+        recordGet(result);
+        assert(result == null || result.stateChange((byte)(Reusable.UNKNOWN | Reusable.RECYCLED), Reusable.USED, objectOwner));
         return result;
     }
 
+    /**
+     * Dequeue object from wrapped queues - starting with stripe of current thread
+     *
+     * @return Unused object - null if wrapped queues contain none
+     */
+    T dequeueShared() {
+        if (stripeMask == 0) {
+            return stripes[0].dequeue();
+        }
+        int home = homeStripe();
+        for (int i = 0; i <= stripeMask; i++) {
+            T result = stripes[(home + i) & stripeMask].dequeue();
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Enqueue unused object to wrapped queue of current thread (not recorded as recycled)
+     *
+     * @param r Unused object (e.g. from magazine of a terminated thread)
+     */
+    @SuppressWarnings("unchecked")
+    void enqueueShared(Reusable r) {
+        stripes[homeStripe()].enqueueAttached((T)r);
+    }
+
+    /**
+     * @return Index of stripe of current thread
+     */
+    private int homeStripe() {
+        long id = Thread.currentThread().getId();
+        return ((int)((id * 0x9E3779B97F4A7C15L) >>> 32)) & stripeMask;
+    }
+
+    /**
+     * Remove unused objects from pool (and delete them) - until there are only lowWaterMark objects attached
+     * (or no unused objects are left in wrapped queues and magazine depot)
+     *
+     * May be called by any thread.
+     * Objects in the magazines of other (running) threads are not removed.
+     *
+     * @param lowWaterMark Number of objects to keep
+     * @return Number of removed objects
+     */
+    @Override
+    public synchronized int trim(int lowWaterMark) {
+        return super.trim(lowWaterMark);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T dequeueForRemoval() {
+        T r = dequeueShared();
+        if (r == null && magazines != null) {
+            r = (T)magazines.removeFromDepot();
+        }
+        return r;
+    }
+
+    @Override
+    protected void detach(T r) {
+        r.owner = null;
+    }
+
+    @Override
+    protected boolean isDetached(T r) {
+        return r.owner == null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T getNextAttached(T r) {
+        return (T)r.nextInBufferPool;
+    }
+
+    @Override
+    protected void setNextAttached(T r, T next) {
+        r.nextInBufferPool = next;
+    }
+
+    /**
+     * Let garbage collector thread shrink pool to lowWaterMark objects -
+     * as soon as getUnused() has not returned null for the specified period of time.
+     *
+     * @param lowWaterMark Number of objects to keep
+     * @param quietPeriodMs Period of time without pool misses before pool is shrunk (in ms)
+     */
+    public synchronized void enableShrinking(int lowWaterMark, long quietPeriodMs) {
+        disableShrinking();
+        lastMissTime = Time.getCoarse();
+        shrinkTask = new ShrinkTask(lowWaterMark, quietPeriodMs);
+        GarbageCollector.addPeriodicTask(shrinkTask);
+    }
+
+    /**
+     * Stop shrinking pool (see enableShrinking())
+     */
+    public synchronized void disableShrinking() {
+        if (shrinkTask != null) {
+            GarbageCollector.removePeriodicTask(shrinkTask);
+            shrinkTask = null;
+        }
+    }
+
     /**
      * Controlled deletion of this pool.
      * No more objects will be recycled to this pool and the pool
@@ -86,14 +285,19 @@ public class ReusablesPoolCR<T extends Reusable> extends AbstractReusablesPool<T
      * Should only be called by owner thread.
      */
     public void controlledDelete() {
+        synchronized (this) {
+            disableShrinking();
+            retireStatistics();
 
-        // Set pool pointers of all elements to null
-        Reusable elem = lastCreated;
-        while (elem != null) {
-            elem.owner = null;
-            Reusable temp = elem.nextInBufferPool;
-            elem.nextInBufferPool = null; // safer and avoids unnecessary memory consumption in Java
-            elem = temp;
+            // Set pool pointers of all elements to owner that deletes them when they are recycled
+            ReusableOwner deletedPoolOwner = getDeletedPoolOwner();
+            Reusable elem = lastCreated;
+            while (elem != null) {
+                elem.owner = deletedPoolOwner;
+                Reusable temp = elem.nextInBufferPool;
+                elem.nextInBufferPool = null; // safer and avoids unnecessary memory consumption in Java
+                elem = temp;
+            }
         }
 
         GarbageCollector.deleteDeferred(this); // should be last instruction
@@ -101,6 +305,68 @@ public class ReusablesPoolCR<T extends Reusable> extends AbstractReusablesPool<T
 
     @Override
     public void delete() {
-        wrapped.deleteEnqueued();
+        if (magazines != null) {
+            magazines.deleteCached();
+        }
+        for (PoolQueue stripe : stripes) {
+            stripe.deleteEnqueued();
+        }
+    }
+
+    /**
+     * Wrapped queue - records objects recycled to it (Reusable.recycle() calls enqueueRaw())
+     */
+    private class PoolQueue extends WonderQueueFastCR<T> {
+
+        @Override
+        public void enqueueRaw(Queueable pd) {
+            recordRecycle();
+            super.enqueueRaw(pd);
+        }
+
+        /**
+         * Enqueue newly attached object (not recorded as recycled)
+         *
+         * @param r Attached object
+         */
+        private void enqueueAttached(T r) {
+            super.enqueueRaw(r);
+        }
+    }
+
+    /**
+     * Owner of attached objects in striped pools without magazine cache:
+     * Enqueues recycled objects to the stripe of the recycling thread
+     */
+    private class StripeSelector implements ReusableOwner {
+
+        @Override
+        public void enqueueRaw(Queueable pd) {
+            stripes[homeStripe()].enqueueRaw(pd);
+        }
+    }
+
+    /**
+     * Task executed by garbage collector thread that shrinks pool
+     */
+    private class ShrinkTask implements Task {
+
+        /** Number of objects to keep */
+        private final int lowWaterMark;
+
+        /** Period of time without pool misses before pool is shrunk (in ms) */
+        private final long quietPeriodMs;
+
+        private ShrinkTask(int lowWaterMark, long quietPeriodMs) {
+            this.lowWaterMark = lowWaterMark;
+            this.quietPeriodMs = quietPeriodMs;
+        }
+
+        @Override
+        public void executeTask() {
+            if (attachedCount > lowWaterMark && Time.getCoarse() - lastMissTime >= quietPeriodMs) {
+                trim(lowWaterMark);
+            }
+        }
     }
 }
@@ -30,7 +30,7 @@ package org.rrlib.finroc_core_utils.jc.container;
 public class ReusablesPoolTL<T extends ReusableTL> extends AbstractReusablesPool<T> {
 
     /** Wrapped Queue */
-    private WonderQueueTL<T> wrapped = new WonderQueueTL<T>();
+    private PoolQueue wrapped = new PoolQueue();
 
     /**
      * Attaches (and enqueues) a Reusable object to this pool.
@@ -39,20 +39,44 @@ public class ReusablesPoolTL<T extends ReusableTL> extends AbstractReusablesPool
      * The method is typically called during initialization of a Reusable.
      *
      * Should only be called by owner thread.
+     * If the pool has reached its maximum size, the object is not attached (see tryAttach()).
      *
      * @param r Reusable to attach and enqueue
      * @param enqueueNow Enqueue attached element or use directly?
      */
     public void attach(T r, boolean enqueueNow) {
+        tryAttach(r, enqueueNow);
+    }
+
+    /**
+     * Attaches (and enqueues) a Reusable object to this pool - if pool has not reached its maximum size.
+     * The object will be returned to the pool when recycled.
+     * If the pool has reached its maximum size, the object is deleted instead - immediately if it was meant to be enqueued, otherwise when it is recycled.
+     *
+     * Should only be called by owner thread.
+     *
+     * @param r Reusable to attach and enqueue
+     * @param enqueueNow Enqueue attached element or use directly?
+     * @return True if object was attached - false if pool has reached its maximum size
+     */
+    @Override
+    public boolean tryAttach(T r, boolean enqueueNow) {
         assert r.nextInBufferPool == null;
         assert r.owner == null;
+        if (!attachAllowed()) {
+            r.owner = rejectAttach(r, enqueueNow);
+            return false;
+        }
         r.nextInBufferPool = lastCreated;
         lastCreated = r;
+        attachedCount++;
         r.owner = wrapped;
         allocationRegisterLock.trackReusable(r);
+        recordAttach(!enqueueNow);
         if (enqueueNow) {
-            wrapped.enqueue(r);
+            wrapped.enqueueAttached(r);
         }
+        return true;
     }
 
     /**
@@ -60,10 +84,37 @@ public class ReusablesPoolTL<T extends ReusableTL> extends AbstractReusablesPool
      */
     public T getUnused() {
         T result = wrapped.dequeue();
+        recordGet(result);
         assert(result == null || result.stateChange((byte)(Reusable.UNKNOWN | Reusable.RECYCLED), Reusable.USED, wrapped));
         return result;
     }
 
+    @Override
+    protected T dequeueForRemoval() {
+        return wrapped.dequeue();
+    }
+
+    @Override
+    protected void detach(T r) {
+        r.owner = null;
+    }
+
+    @Override
+    protected boolean isDetached(T r) {
+        return r.owner == null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T getNextAttached(T r) {
+        return (T)r.nextInBufferPool;
+    }
+
+    @Override
+    protected void setNextAttached(T r, T next) {
+        r.nextInBufferPool = next;
+    }
+
     /**
      * Controlled deletion of this pool.
      * No more objects will be recycled to this pool and the pool
@@ -72,11 +123,13 @@ public class ReusablesPoolTL<T extends ReusableTL> extends AbstractReusablesPool
      * Should only be called by owner thread.
      */
     public void controlledDelete() {
+        retireStatistics();
 
-        // Set pool pointers of all elements to null
+        // Set pool pointers of all elements to owner that deletes them when they are recycled
+        ReusableOwner deletedPoolOwner = getDeletedPoolOwner();
         ReusableTL elem = lastCreated;
         while (elem != null) {
-            elem.owner = null;
+            elem.owner = deletedPoolOwner;
             ReusableTL temp = elem.nextInBufferPool;
             elem.nextInBufferPool = null; // safer and avoids unnecessary memory consumption in Java
             elem = temp;
@@ -89,4 +142,25 @@ public class ReusablesPoolTL<T extends ReusableTL> extends AbstractReusablesPool
     public void delete() {
         wrapped.deleteEnqueued();
     }
+
+    /**
+     * Wrapped queue - records objects recycled to it (Reusable.recycle() calls enqueueRaw())
+     */
+    private class PoolQueue extends WonderQueueTL<T> {
+
+        @Override
+        public void enqueueRaw(Queueable pd) {
+            recordRecycle();
+            super.enqueueRaw(pd);
+        }
+
+        /**
+         * Enqueue newly attached object (not recorded as recycled)
+         *
+         * @param r Attached object
+         */
+        private void enqueueAttached(T r) {
+            super.enqueueRaw(r);
+        }
+    }
 }
@@ -0,0 +1,76 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.container;
+
+import org.rrlib.finroc_core_utils.jc.thread.ConsumerWaiter;
+
+/**
+ * @author Max Reichardt
+ *
+ * Single-reader queue whose reader can wait for elements (dequeueWaiting()) -
+ * using a ConsumerWaiter that producers signal after enqueueing.
+ */
+public interface WaitableQueue<T> {
+
+    /**
+     * (Needs to be called before queue is used)
+     *
+     * @param consumerWaiter Wait strategy for consumer (enables dequeueWaiting()) - null for none
+     */
+    public void setConsumerWaiter(ConsumerWaiter consumerWaiter);
+
+    /**
+     * @return Wait strategy for consumer - null if none is set
+     */
+    public ConsumerWaiter getConsumerWaiter();
+
+    /**
+     * Remove first element from queue and return it.
+     * (May only be called by a single reader thread concurrently.)
+     *
+     * @return Element that was dequeued - null if no element is available
+     */
+    public T dequeue();
+
+    /**
+     * (May only be called by reader thread - used by ConsumerWaiter before parking)
+     * Reads the variable that producers update with the atomic operation that publishes an element
+     * (other than e.g. checking for an available element, this is ordered with respect to ConsumerWaiter.signal()).
+     *
+     * @return True if no element is in queue or being enqueued
+     */
+    public boolean isDrained();
+
+    /**
+     * Remove first element from queue and return it - wait for one, if queue is empty.
+     * Requires a consumer wait strategy (see setConsumerWaiter()).
+     * May only be called by a single reader thread concurrently.
+     *
+     * @param timeoutMs Maximum time to wait in ms (negative values: wait indefinitely)
+     * @return Element that was dequeued - null if no element became available before timeout
+     */
+    public default T dequeueWaiting(long timeoutMs) {
+        ConsumerWaiter waiter = getConsumerWaiter();
+        assert(waiter != null);
+        return waiter.await(this::dequeue, this::isDrained, timeoutMs);
+    }
+}
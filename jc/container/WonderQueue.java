@@ -22,9 +22,14 @@
 package org.rrlib.finroc_core_utils.jc.container;
 
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
 
 import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
+import org.rrlib.finroc_core_utils.jc.PaddedAtomicReference;
+import org.rrlib.finroc_core_utils.jc.thread.ConsumerWaiter;
 import org.rrlib.finroc_core_utils.jc.thread.SpinLock;
+import org.rrlib.finroc_core_utils.jc.thread.ThreadUtil;
 
 /**
  * @author Max Reichardt
@@ -39,8 +44,9 @@ class RawWonderQueue extends Queueable {
     /**
      * Pointer to last element in queue - never null
      * This variable us used for "communication" among writers
+     * (padded, so that writers do not invalidate the cache line with the reader's variables)
      */
-    private final AtomicReference<Queueable> last = new AtomicReference<Queueable>(this);
+    private final PaddedAtomicReference<Queueable> last = new PaddedAtomicReference<Queueable>(this);
 
     /**
      * Temporary last object (for dequeueing) - this way all elements can be dequeued.
@@ -55,8 +61,36 @@ class RawWonderQueue extends Queueable {
      */
     private final AtomicReference<Queueable> nextFirst = new AtomicReference<Queueable>(null);
 
+    /** Optional wait strategy for consumer - null if consumer does not wait (needs to be set before queue is used) */
+    private ConsumerWaiter consumerWaiter;
+
+    /**
+     * Chunk that readers currently dequeue from in non-blocking concurrent dequeue mode - null if queue is not meant for concurrent reading.
+     * (Replaces next and readLast in this mode)
+     */
+    private final AtomicReference<ReadChunk> readChunk;
+
+    /**
+     * Chunk that was fetched most recently in non-blocking concurrent dequeue mode.
+     * Only accessed by the reader that currently holds the chunk fetched from nextFirst
+     * (writing 'last' and 'nextFirst' orders accesses of successive readers - so this does not need to be volatile)
+     */
+    private ReadChunk lastFetchedChunk;
+
+    /** Maximum number of spin iterations to wait for a link to become visible in batch dequeueing */
+    private static final int MAX_LINK_SPINS = 64;
+
     public RawWonderQueue() {
+        this(false);
+    }
+
+    /**
+     * @param concurrentDequeue Is this queue meant for non-blocking concurrent reading? (appropriate dequeue method needs to be called depending on choice)
+     */
+    public RawWonderQueue(boolean concurrentDequeue) {
         next = null;
+        lastFetchedChunk = concurrentDequeue ? new ReadChunk(null, this) : null; // empty initial chunk (readable, but exhausted)
+        readChunk = concurrentDequeue ? new AtomicReference<ReadChunk>(lastFetchedChunk) : null;
     }
 
     /**
@@ -77,15 +111,106 @@ class RawWonderQueue extends Queueable {
             // set "next" of previous element
             prev.next = pd;
         }
+
+        // wake up consumer if it is waiting
+        ConsumerWaiter waiter = consumerWaiter;
+        if (waiter != null) {
+            waiter.signal();
+        }
+    }
+
+    /**
+     * Add chain of elements to the end of the queue - using a single atomic operation.
+     * (Is thread safe and non-blocking/non-waiting)
+     *
+     * @param first First element in chain
+     * @param last Last element in chain (all elements from first to last must already be linked via 'next' - last.next must be null)
+     */
+    public void enqueueChain(Queueable first, Queueable last) {
+        assert(last.next == null);
+
+        // swap last pointer
+        Queueable prev = this.last.getAndSet(last);
+
+        if (prev == this) {
+            assert(nextFirst.get() == null);
+            nextFirst.set(first);
+        } else {
+            // set "next" of previous element
+            prev.next = first;
+        }
+
+        // wake up consumer if it is waiting
+        ConsumerWaiter waiter = consumerWaiter;
+        if (waiter != null) {
+            waiter.signal();
+        }
+    }
+
+    /**
+     * (Needs to be called before queue is used)
+     *
+     * @param consumerWaiter Wait strategy for consumer (enables dequeueWaiting()) - null for none
+     */
+    public void setConsumerWaiter(ConsumerWaiter consumerWaiter) {
+        this.consumerWaiter = consumerWaiter;
+    }
+
+    /**
+     * @return Wait strategy for consumer - null if none is set
+     */
+    public ConsumerWaiter getConsumerWaiter() {
+        return consumerWaiter;
+    }
+
+    /**
+     * (May only be called by reader thread - see WaitableQueue.isDrained())
+     * Must not be used, if queue was created for concurrent dequeueing.
+     *
+     * @return True if no element is in queue or being enqueued
+     */
+    public boolean isDrained() {
+        assert(readChunk == null);
+        return next == null && nextFirst.get() == null; // from this state, producers publish with a volatile write to nextFirst
+    }
+
+    /**
+     * Add all elements in array wrapper to the end of the queue (in array order) - using a single atomic operation.
+     * (Is thread safe and non-blocking/non-waiting)
+     *
+     * @param elements Elements to enqueue
+     */
+    public void enqueueAllRaw(ArrayWrapper <? extends Queueable > elements) {
+        if (elements.size() == 0) {
+            return;
+        }
+        linkChain(elements);
+        enqueueChain(elements.get(0), elements.get(elements.size() - 1));
     }
 
     /**
      * Remove first element from queue and return it.
-     * (May only be called by a single reader thread concurrently.)
+     * (May only be called by a single reader thread concurrently.
+     *  Must not be used, if queue was created for concurrent dequeueing.)
      *
      * @return Element that was dequeued - null if no element is available
      */
     public Queueable dequeueRaw() {
+        return dequeueRaw(false);
+    }
+
+    /**
+     * Remove first element from queue and return it.
+     * (May only be called by a single reader thread concurrently.
+     *  Must not be used, if queue was created for concurrent dequeueing.)
+     *
+     * @param awaitLink Briefly wait if the link to the next element is not visible yet?
+     *                  (The enqueueing thread has already swapped 'last' then and is about to set it.
+     *                   Used for batch dequeueing - otherwise, a batch would frequently end early under concurrent enqueueing)
+     * @return Element that was dequeued - null if no element is available
+     */
+    Queueable dequeueRaw(boolean awaitLink) {
+        assert(readChunk == null) : "Queue was created for concurrent dequeueing: use concurrentDequeue()";
         Queueable next = this.next;
         if (next == null) { // does readLast need updating?
             next = nextFirst.getAndSet(null);
@@ -100,7 +225,13 @@ class RawWonderQueue extends Queueable {
             return next;
         }
         Queueable nextnext = next.next;
+        for (int i = 0; awaitLink && nextnext == null && i < MAX_LINK_SPINS; i++) {
+            ThreadUtil.onSpinWait();
+            ThreadUtil.acquireFence(); // makes sure next.next (not volatile) is actually read again
+            nextnext = next.next;
+        }
         if (nextnext == null) { // can occur with delayed/preempted enqueue operations (next is set later and is not volatile)
+            this.next = next; // keep freshly fetched chunk
             return null; // queue is not empty, but elements are not fully available yet
         }
         this.next = nextnext;
@@ -110,11 +241,15 @@ class RawWonderQueue extends Queueable {
 
     /**
      * Remove first element from queue and return it.
-     * (May be called by multiple threads concurrently. Uses locks => not non-blocking)
+     * (May be called by multiple threads concurrently.
+     *  Non-blocking, if queue was created for concurrent dequeueing - otherwise uses locks)
      *
      * @return Element that was dequeued - null if no element is available
      */
     public Queueable concurrentDequeueRaw() {
+        if (readChunk != null) {
+            return nonBlockingDequeueRaw();
+        }
         lock.lock();
         Queueable result = dequeueRaw();
         lock.release();
@@ -122,44 +257,129 @@ class RawWonderQueue extends Queueable {
     }
 
     /**
-     * Dequeue multiple elements at once
+     * Non-blocking concurrent dequeue implementation.
      *
-     * @param buffer Buffer to write result to
-     * @param maxElements Maximum number of elements to dequeue
-     * @return Actual number of elements dequeued (can be less if queue has lass elements)
+     * Like in dequeueRaw(), a reader fetches the whole chunk of enqueued elements by resetting 'last' to this.
+     * Since 'last' does not point into the chunk anymore, writers will not modify it - so all of its elements can be dequeued.
+     * Fetched chunks are appended to a list of chunks before 'last' is reset - so they are dequeued in the order they were fetched (FIFO).
+     * Readers move through a chunk by replacing its head with compare-and-set.
+     *
+     * Readers do not touch a chunk before its 'last' has been set: Until then, writers may still append to the chunk -
+     * including elements that were dequeued from this chunk and recycled. A chunk's head could then return to an element
+     * it has already passed (ABA). Once 'last' is set, the chunk's chain is fixed and every element occurs only once in it
+     * (recycled elements are enqueued to a later chunk) - so the head never returns to an element it has passed.
+     *
+     * Progress guarantees: Dequeueing is FIFO.
+     * One small ReadChunk object is allocated per fetched chunk (not per element) - so this mode is not entirely free of memory allocation.
+     * As long as the reader that fetched a chunk has not reset 'last' yet, no element of this chunk can be dequeued
+     * (null is returned as with delayed/preempted enqueue operations). Apart from this short window, dequeueing is lock-free.
+     *
+     * @return Element that was dequeued - null if no element is available
      */
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    public int dequeueRaw(ArrayWrapper buffer, int maxElements) {
-        int pos = 0;
-
-        // first run: dequeue remaining elements in current chunk
-        // second run: dequeue remaining elements in updated chunk
-        for (int i = 0;; i++) {
-            while (next != null && pos < maxElements) {
-                if (next == readLast) {
-                    next = null;
+    private Queueable nonBlockingDequeueRaw() {
+        while (true) {
+            ReadChunk chunk = readChunk.get();
+            Queueable chunkLast = chunk.last;
+            if (chunkLast == null) {
+                return null; // reader that fetched chunk has not reset 'last' yet - elements are not fully available yet
+            }
+            Queueable next = chunk.head;
+            if (next == null) { // chunk is exhausted
+                ReadChunk nextChunk = chunk.nextChunk;
+                if (nextChunk != null) {
+                    readChunk.compareAndSet(chunk, nextChunk);
+                } else if (!fetchChunk()) {
+                    return null; // queue empty
                 }
-                Queueable nextnext = next.next;
-                if (nextnext == null) { // can occur with delayed/preempted enqueue operations (next is set later and is not volatile)
-                    return pos; // queue is not empty, but elements are not fully available yet
+                continue;
+            }
+
+            Queueable nextnext = null;
+            if (next != chunkLast) {
+                nextnext = next.next;
+                if (nextnext == null) { // can occur with delayed/preempted enqueue and fetch operations (or if another reader dequeued next in the meantime)
+                    if (chunk.head != next) {
+                        continue;
+                    }
+                    return null; // queue is not empty, but elements are not fully available yet
                 }
-                next = nextnext;
+            }
+            if (ReadChunk.headUpdater.compareAndSet(chunk, next, nextnext)) {
                 next.next = null;
-                buffer.set(pos, next);
-                pos++;
+                return next;
             }
+        }
+    }
 
-            if (i == 1 || pos == maxElements) { // terminate after second run
-                return pos;
-            }
+    /**
+     * Fetch chunk of enqueued elements and append it to the chunks that readers dequeue from
+     *
+     * @return False, if there were no elements to fetch
+     */
+    private boolean fetchChunk() {
+        Queueable first = nextFirst.getAndSet(null); // only one reader can succeed until 'last' has been reset
+        if (first == null) {
+            return false;
+        }
+        ReadChunk chunk = new ReadChunk(first, null);
+        lastFetchedChunk.nextChunk = chunk; // published before 'last' is reset: next fetched chunk is appended after this one (readers skip it until 'last' is set)
+        lastFetchedChunk = chunk;
+        chunk.last = last.getAndSet(this);
+        return true;
+    }
 
-            // fetch updated chunk
-            next = nextFirst.getAndSet(null);
-            if (next == null) {
-                return pos; // queue empty
+    /**
+     * @return Is this queue meant for non-blocking concurrent reading?
+     */
+    public boolean isConcurrentDequeue() {
+        return readChunk != null;
+    }
+
+    /**
+     * Chunk of fetched elements in non-blocking concurrent dequeue mode
+     */
+    private static class ReadChunk {
+
+        /** Updater for head */
+        private static final AtomicReferenceFieldUpdater<ReadChunk, Queueable> headUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(ReadChunk.class, Queueable.class, "head");
+
+        /** Next element to dequeue from this chunk - null if chunk is exhausted */
+        private volatile Queueable head;
+
+        /** Last element in chunk - null as long as the reader that fetched this chunk has not reset 'last' yet */
+        private volatile Queueable last;
+
+        /** Chunk that was fetched after this one - null if there is none (yet) */
+        private volatile ReadChunk nextChunk;
+
+        private ReadChunk(Queueable head, Queueable last) {
+            this.head = head;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Dequeue multiple elements at once
+     * (May only be called by a single reader thread concurrently.
+     *  Must not be used, if queue was created for concurrent dequeueing.)
+     *
+     * @param buffer Buffer to write result to
+     * @param maxElements Maximum number of elements to dequeue
+     * @return Actual number of elements dequeued (can be less if queue has less elements)
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public int dequeueRaw(ArrayWrapper buffer, int maxElements) {
+        int pos = 0;
+        while (pos < maxElements) {
+            Queueable q = dequeueRaw(true);
+            if (q == null) {
+                break;
             }
-            readLast = last.getAndSet(this);
+            buffer.set(pos, q);
+            pos++;
         }
+        return pos;
     }
 }
 
@@ -175,8 +395,24 @@ class RawWonderQueue extends Queueable {
  * In this variant, all elements can be dequeued.
  * Internally, it does this by dequeueing all elements internally and then returning
  * them one by one.
+ *
+ * If created with concurrentDequeue set, multiple threads may read from this queue
+ * using concurrentDequeue() without locking (see RawWonderQueue.nonBlockingDequeueRaw()).
+ * In this case, only concurrentDequeue() may be used for reading (the single-reader methods
+ * assert this). Otherwise, concurrentDequeue() uses a spin lock.
  */
-public class WonderQueue<T extends Queueable> extends RawWonderQueue {
+public class WonderQueue<T extends Queueable> extends RawWonderQueue implements WaitableQueue<T> {
+
+    public WonderQueue() {
+        super(false);
+    }
+
+    /**
+     * @param concurrentDequeue Is this queue meant for non-blocking concurrent reading? (then only concurrentDequeue() may be used for reading)
+     */
+    public WonderQueue(boolean concurrentDequeue) {
+        super(concurrentDequeue);
+    }
 
     /**
      * Add element to the end of the queue.
@@ -188,9 +424,20 @@ public class WonderQueue<T extends Queueable> extends RawWonderQueue {
         enqueueRaw(pd);
     }
 
+    /**
+     * Add all elements in array wrapper to the end of the queue (in array order) - using a single atomic operation.
+     * Is thread safe and non-blocking/non-waiting
+     *
+     * @param elements Elements to enqueue
+     */
+    public void enqueueAll(ArrayWrapper<T> elements) {
+        enqueueAllRaw(elements);
+    }
+
     /**
      * Remove first element from queue and return it.
      * May only be called by a single reader thread concurrently.
+     * Must not be used, if queue was created for concurrent dequeueing.
      *
      * @return Element that was dequeued - null if no elements available
      */
@@ -201,18 +448,44 @@ public class WonderQueue<T extends Queueable> extends RawWonderQueue {
 
     /**
      * Dequeue multiple elements at once
+     * May only be called by a single reader thread concurrently.
+     * Must not be used, if queue was created for concurrent dequeueing.
      *
      * @param buffer Buffer to write result to
      * @param maxElements Maximum number of elements to dequeue
-     * @return Actual number of elements dequeued (can be less if queue has lass elements)
+     * @return Actual number of elements dequeued (can be less if queue has less elements)
      */
     public int dequeue(ArrayWrapper<T> buffer, int maxElements) {
         return dequeueRaw(buffer, maxElements);
     }
 
+    /**
+     * Dequeue multiple elements and pass them to consumer directly (in queue order) - without copying them to a buffer first.
+     * May only be called by a single reader thread concurrently.
+     * Must not be used, if queue was created for concurrent dequeueing.
+     *
+     * @param consumer Consumer that receives dequeued elements
+     * @param limit Maximum number of elements to dequeue
+     * @return Actual number of elements dequeued (can be less if queue has less elements)
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<? super T> consumer, int limit) {
+        int count = 0;
+        while (count < limit) {
+            T t = (T)dequeueRaw(true);
+            if (t == null) {
+                break;
+            }
+            consumer.accept(t);
+            count++;
+        }
+        return count;
+    }
+
     /**
      * Remove first element from queue and return it.
-     * (May be called by multiple threads concurrently. Uses locks => not non-blocking)
+     * (May be called by multiple threads concurrently.
+     *  Non-blocking, if queue was created for concurrent dequeueing - otherwise uses locks)
      *
      * @return Element that was dequeued - null if no element is available
      */
@@ -227,7 +500,7 @@ public class WonderQueue<T extends Queueable> extends RawWonderQueue {
      */
     public void deleteEnqueued() {
         while (true) {
-            T r = dequeue();
+            T r = isConcurrentDequeue() ? concurrentDequeue() : dequeue();
             if (r == null) {
                 break;
             }
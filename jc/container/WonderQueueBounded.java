@@ -21,7 +21,11 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.container;
 
+import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
 import org.rrlib.finroc_core_utils.jc.stampedptr.AtomicStampedPtrIdx64;
+import org.rrlib.finroc_core_utils.jc.stampedptr.AtomicStampedPtrRef;
+import org.rrlib.finroc_core_utils.jc.stampedptr.PaddedAtomicStampedPtrIdx64;
+import org.rrlib.finroc_core_utils.jc.thread.ConsumerWaiter;
 import org.rrlib.logging.Log;
 import org.rrlib.logging.LogLevel;
 
@@ -53,7 +57,7 @@ import org.rrlib.logging.LogLevel;
  *   [1bit flag: signal that element has already been used/dequeued - do not use/recycle content anymore (enters this state when dequeueing last element]
  *   [29bit counter - wrapped around]
  */
-public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer> {
+public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer> implements WaitableQueue<T> {
 
     /** See class comment for meanings */
     //private static final int DQ_THREAD_LOCK_FLAG = 0x40000000;
@@ -61,11 +65,11 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
     private static final int COUNTER_MASK =        0x1FFFFFFF;
     private static final int COUNTER_WRAP = COUNTER_MASK + 1;
 
-    /** Last element in queue - the one that was most recently added - never null - stamp is element index*/
-    protected final AtomicStampedPtrIdx64<C> last = new AtomicStampedPtrIdx64<C>();
+    /** Last element in queue - the one that was most recently added - never null - stamp is element index (padded: mainly written by writers) */
+    protected final AtomicStampedPtrIdx64<C> last;
 
-    /** First/oldest element in queue - stamp is element index - negative stamp means that object has already been dequeued: do not recycle element */
-    protected final AtomicStampedPtrIdx64<C> first = new AtomicStampedPtrIdx64<C>();
+    /** First/oldest element in queue - stamp is element index - negative stamp means that object has already been dequeued: do not recycle element (padded: mainly written by reader) */
+    protected final AtomicStampedPtrIdx64<C> first;
 
     /**
      * Maximum length of queue - due to threading/efficiency issues queue can sometimes
@@ -74,20 +78,42 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
      */
     private int maxLength = -1;
 
+    /** Optional statistics - null if disabled (needs to be set before queue is used) */
+    private QueueStatistics statistics;
+
+    /** Optional wait strategy for consumer - null if consumer does not wait (needs to be set before queue is used) */
+    private ConsumerWaiter consumerWaiter;
+
     /** Dummy object to signal that we need to retry an operation */
     private static final Object RETRY = new Object();
 
 
     public WonderQueueBounded() {
-        BoundedQElementContainer.staticInit();
+        this(-1);
     }
 
     /**
      * @param maxLength Maximum length of queue - Negative values signal that there's no limit
      */
     public WonderQueueBounded(int maxLength) {
+        this(maxLength, false);
+    }
+
+    /**
+     * @param maxLength Maximum length of queue - Negative values signal that there's no limit
+     * @param directReferences Use stamped pointers with direct references (AtomicStampedPtrRef)?
+     *                         (avoids lookups in AllocationRegister when dequeueing - but allocates a small object with every pointer change)
+     */
+    public WonderQueueBounded(int maxLength, boolean directReferences) {
         BoundedQElementContainer.staticInit();
         this.maxLength = maxLength;
+        if (directReferences) {
+            last = new AtomicStampedPtrRef<C>();
+            first = new AtomicStampedPtrRef<C>();
+        } else {
+            last = new PaddedAtomicStampedPtrIdx64<C>();
+            first = new PaddedAtomicStampedPtrIdx64<C>();
+        }
     }
 
     public void delete() {
@@ -106,7 +132,7 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
         C c = getEmptyContainer();
         assert(c.stateChange((byte)(Reusable.UNKNOWN | Reusable.USED), Reusable.ENQUEUED, this));
         last.set(c, 1);
-        first.set(last.getRaw());
+        first.set(c, 1);
         c.next2.set(BoundedQElementContainer.getDummy(0));
     }
 
@@ -141,6 +167,11 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
 
         assert(pd.stateChange((byte)(Reusable.UNKNOWN | Reusable.USED), Reusable.ENQUEUED, this));
 
+        QueueStatistics stats = statistics;
+        if (stats != null && stats.trackAge) {
+            pd.enqueueTime = System.nanoTime();
+        }
+
         // swap last pointer
         BoundedQElementContainer prev = null;
         long raw = 0;
@@ -174,9 +205,158 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
         if (!s) {
             Log.log(LogLevel.DEBUG_VERBOSE_1, this, "Skipped setting next");
         }
+        if (stats != null) {
+            stats.enqueued.increment();
+        }
 
         // adjust length - if size exceeds maximum length
         adjustLength(count);
+
+        // wake up consumer if it is waiting
+        ConsumerWaiter waiter = consumerWaiter;
+        if (waiter != null) {
+            waiter.signal();
+        }
+    }
+
+    /**
+     * Add all elements in array wrapper to the end of the queue (in array order).
+     * Containers are linked to a chain first - which is then enqueued using enqueueChain().
+     * (Is thread safe and non-blocking in C++)
+     *
+     * @param elements Elements to enqueue
+     */
+    public void enqueueWrapped(ArrayWrapper<T> elements) {
+        int size = elements.size();
+        if (size == 0) {
+            return;
+        }
+        C chainFirst = null;
+        C chainLast = null;
+        for (int i = 0; i < size; i++) {
+            C c = getEmptyContainer();
+            assert(c.element == null);
+            assert(!c.isDummy());
+            c.element = elements.get(i);
+            if (chainLast == null) {
+                chainFirst = c;
+            } else {
+                linkToChain(chainLast, c);
+            }
+            chainLast = c;
+        }
+        enqueueChain(chainFirst, chainLast, size);
+    }
+
+    /**
+     * Add all containers in array wrapper to the end of the queue (in array order).
+     * Containers are linked to a chain first - which is then enqueued using enqueueChain().
+     * (Is thread safe and non-blocking)
+     *
+     * @param containers Containers to enqueue
+     */
+    public void enqueueDirect(ArrayWrapper<C> containers) {
+        int size = containers.size();
+        if (size == 0) {
+            return;
+        }
+        for (int i = 1; i < size; i++) {
+            linkToChain(containers.get(i - 1), containers.get(i));
+        }
+        enqueueChain(containers.get(0), containers.get(size - 1), size);
+    }
+
+    /**
+     * Append container to chain of containers that is not enqueued yet
+     *
+     * @param chainLast Current last container in chain
+     * @param c Container to append
+     */
+    private void linkToChain(C chainLast, C c) {
+        assert(chainLast.next2.get() == BoundedQElementContainer.getDummy(chainLast.reuseCounter));
+        c.prev = chainLast;
+        chainLast.next2.set(c);
+    }
+
+    /**
+     * Add chain of containers to the end of the queue - using a single atomic operation on 'last'
+     * (instead of one per container).
+     * (Is thread safe and non-blocking)
+     *
+     * @param chainFirst First container in chain
+     * @param chainLast Last container in chain (containers from chainFirst to chainLast must already be linked via 'next2' and 'prev' -
+     *                  as enqueueWrapped(ArrayWrapper) and enqueueDirect(ArrayWrapper) do)
+     * @param chainLength Number of containers in chain
+     */
+    public void enqueueChain(C chainFirst, C chainLast, int chainLength) {
+
+        assert(chainStateChange(chainFirst, chainLast));
+        assert(chainLast.next2.get() == BoundedQElementContainer.getDummy(chainLast.reuseCounter));
+        QueueStatistics stats = statistics;
+        if (stats != null && stats.trackAge) {
+            long now = System.nanoTime();
+            for (BoundedQElementContainer c = chainFirst;; c = c.next2.get()) {
+                c.enqueueTime = now;
+                if (c == chainLast) {
+                    break;
+                }
+            }
+        }
+
+        // swap last pointer - stamp is advanced by chain length, so that it remains the element index of the last element
+        BoundedQElementContainer prev = null;
+        long raw = 0;
+        int count = 0;
+        int lastCounter = 0;
+        while (true) {
+            raw = last.getRaw();
+            prev = last.getPointer(raw);
+            assert(prev != null); // forgot to call init?
+            count = (last.getStamp(raw) + chainLength) & COUNTER_MASK;
+            chainFirst.prev = prev;
+            assert(prev != chainFirst);
+            lastCounter = prev.reuseCounter;
+            if (last.compareAndSet(raw, chainLast, count)) {
+                break;
+            }
+
+            // ahh... fail (rare case)
+            chainFirst.prev = null;
+        }
+
+        // set "next" of previous element (see enqueueDirect)
+        boolean s = prev.next2.compareAndSet(BoundedQElementContainer.getDummy(lastCounter), chainFirst); // only set, if still needed
+        if (!s) {
+            Log.log(LogLevel.DEBUG_VERBOSE_1, this, "Skipped setting next");
+        }
+        if (stats != null) {
+            stats.enqueued.add(chainLength);
+        }
+
+        // adjust length - if size exceeds maximum length
+        adjustLength(count);
+
+        // wake up consumer if it is waiting
+        ConsumerWaiter waiter = consumerWaiter;
+        if (waiter != null) {
+            waiter.signal();
+        }
+    }
+
+    /**
+     * (for debugging only - usage: assert(chainStateChange(chainFirst, chainLast)); )
+     * Performs state change to ENQUEUED for all containers in chain
+     */
+    @SuppressWarnings("unchecked")
+    private boolean chainStateChange(C chainFirst, C chainLast) {
+        for (C c = chainFirst;; c = (C)c.next2.get()) {
+            if (!c.stateChange((byte)(Reusable.UNKNOWN | Reusable.USED), Reusable.ENQUEUED, this)) {
+                return false;
+            }
+            if (c == chainLast) {
+                return true;
+            }
+        }
     }
 
     /**
@@ -207,17 +387,20 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
                 return; // wow! we're having some rare preemption delays... never mind... queue might be a little too long
             }
 
-            long rawNext = first.merge((C)next, firstCount + 1);
-            if (!first.compareAndSet(rawFirst, rawNext)) {
+            if (!first.compareAndSet(rawFirst, (C)next, firstCount + 1)) {
                 return; // someone else is dealing with this... he will shorten the list... maybe not enough, but never mind... somebody will do it
             }
 
-            firstElem.recycle((firstCountRaw & DONT_USE_FLAG) == 0);
+            boolean drop = (firstCountRaw & DONT_USE_FLAG) == 0;
+            if (drop && statistics != null && firstElem.element != null) {
+                statistics.dropped.increment();
+            }
+            firstElem.recycle(drop);
 
-            rawFirst = rawNext;
             firstCount++;
             firstCountRaw = firstCount;
             firstElem = (C)next;
+            rawFirst = first.merge(firstElem, firstCount); // raw value we just set (only needed for next iteration)
         }
     }
 
@@ -235,6 +418,86 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
         return maxLength;
     }
 
+    /**
+     * (Needs to be called before queue is used)
+     *
+     * @param statistics Statistics to record - null to disable
+     */
+    public void setStatistics(QueueStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return Statistics of this queue - null if disabled
+     */
+    public QueueStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * (Can be called by any thread - does not modify the queue)
+     *
+     * @return Estimated number of elements in queue (calculated from the element indices in 'first' and 'last' stamps)
+     */
+    public int getLengthEstimate() {
+        long rawFirst = first.getRaw();
+        int firstCountRaw = first.getStamp(rawFirst);
+        C firstElem = first.getPointer(rawFirst);
+        int lastCount = last.getStamp(last.getRaw());
+        int length = ((lastCount - (firstCountRaw & COUNTER_MASK)) & COUNTER_MASK) + 1;
+        if ((firstCountRaw & DONT_USE_FLAG) != 0 || firstElem.element == null) {
+            length--; // first element has already been dequeued - or is empty initial element
+        }
+        return Math.max(0, length);
+    }
+
+    /**
+     * (Requires statistics with age tracking. Can be called by any thread - does not modify the queue)
+     *
+     * @return Time (in ns) that oldest element in queue has been enqueued - 0 if queue is empty
+     */
+    public long getAge() {
+        assert(statistics != null && statistics.trackAge);
+        long rawFirst = first.getRaw();
+        C firstElem = first.getPointer(rawFirst);
+        if ((first.getStamp(rawFirst) & DONT_USE_FLAG) != 0 || firstElem.element == null) {
+            BoundedQElementContainer next = firstElem.next2.get();
+            if (next.isDummy()) {
+                return 0;
+            }
+            return System.nanoTime() - next.enqueueTime;
+        }
+        return System.nanoTime() - firstElem.enqueueTime;
+    }
+
+    /**
+     * (Needs to be called before queue is used)
+     *
+     * @param consumerWaiter Wait strategy for consumer (enables dequeueWaiting()) - null for none
+     */
+    public void setConsumerWaiter(ConsumerWaiter consumerWaiter) {
+        this.consumerWaiter = consumerWaiter;
+    }
+
+    /**
+     * @return Wait strategy for consumer - null if none is set
+     */
+    public ConsumerWaiter getConsumerWaiter() {
+        return consumerWaiter;
+    }
+
+    /**
+     * (May only be called by reader thread - see WaitableQueue.isDrained())
+     *
+     * @return True if no element is in queue or being enqueued
+     */
+    public boolean isDrained() {
+        long rawFirst = first.getRaw();
+        C firstElem = first.getPointer(rawFirst);
+        boolean firstRead = firstElem.element == null || (first.getStamp(rawFirst) & DONT_USE_FLAG) != 0;
+        return firstRead && last.getPointer() == firstElem; // producers publish with CAS on 'last'
+    }
+
     /**
      * Remove first element from queue and return it.
      * (May only be called by a single reader thread concurrently.)
@@ -244,10 +507,20 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
      */
     @SuppressWarnings("unchecked")
     public T dequeue() {
-        Object result = null;
-        do {
-            result = dequeue2();
-        } while (result == RETRY);
+        Object result = dequeue2();
+        if (statistics == null) {
+            while (result == RETRY) {
+                result = dequeue2();
+            }
+        } else {
+            while (result == RETRY) {
+                statistics.dequeueRetries++;
+                result = dequeue2();
+            }
+            if (result != null) {
+                statistics.dequeued++;
+            }
+        }
         return (T)result;
     }
 
@@ -272,8 +545,7 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
                 return null;
             }
 
-            long rawNext = first.merge((C)next, firstCount + 1);
-            if (!first.compareAndSet(rawFirst, rawNext)) {
+            if (!first.compareAndSet(rawFirst, (C)next, firstCount + 1)) {
                 //System.out.println("dqr2: Retry " + firstCount + 1);
                 return RETRY; // ah... somebody else changed something... we need to retry
             }
@@ -281,8 +553,8 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
 
             firstElem.recycle(false);
             firstElem = (C)next;
-            rawFirst = rawNext;
             firstCount++;
+            rawFirst = first.merge(firstElem, firstCount); // raw value we just set
         }
 
         // dequeue next element
@@ -300,8 +572,7 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
             return result;
         }
 
-        long rawNext = first.merge((C)next, firstCount + 1);
-        if (!first.compareAndSet(rawFirst, rawNext)) {
+        if (!first.compareAndSet(rawFirst, (C)next, firstCount + 1)) {
             //System.out.println("dqr2: XRetryX " + firstCount + 1);
             return RETRY; // ah... somebody else changed something... we need to retry
         }
@@ -350,6 +621,7 @@ public abstract class WonderQueueBounded<T, C extends BoundedQElementContainer>
 
         wqf.skipFirst = (first.getStamp(rawFirst) & DONT_USE_FLAG) > 0;
         wqf.next = first.getPointer(rawFirst);
+        wqf.statistics = statistics;
     }
 
     /**
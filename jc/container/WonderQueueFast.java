@@ -21,7 +21,8 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.container;
 
-import java.util.concurrent.atomic.AtomicReference;
+import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
+import org.rrlib.finroc_core_utils.jc.PaddedAtomicReference;
 
 /**
  * @author Max Reichardt
@@ -38,13 +39,13 @@ import java.util.concurrent.atomic.AtomicReference;
  * is that 'last' will point to reused element if last element is dequeued; maybe
  * there's a better way (?) )
  */
-class RawWonderQueueFast extends Queueable {
+class RawWonderQueueFast extends Queueable implements ReusableOwner {
 
-    /** Pointer to last element in queue - never null */
-    private final AtomicReference<Queueable> last = new AtomicReference<Queueable>(this);
+    /** Pointer to last element in queue - never null (padded: written by writers only) */
+    private final PaddedAtomicReference<Queueable> last = new PaddedAtomicReference<Queueable>(this);
 
-    /** Atomic Pointer to next element in queue - only relevant for concurrent reading */
-    protected final AtomicReference<Queueable> nextCR = new AtomicReference<Queueable>(this);
+    /** Atomic Pointer to next element in queue - only relevant for concurrent reading (padded: written by readers only) */
+    protected final PaddedAtomicReference<Queueable> nextCR = new PaddedAtomicReference<Queueable>(this);
 
     /**
      * @param concurrentReaders Is this queue meant for concurrent reading? (appropriate dequeue method needs to be called depending on choice)
@@ -70,6 +71,38 @@ class RawWonderQueueFast extends Queueable {
         prev.next = pd;
     }
 
+    /**
+     * Add chain of elements to the end of the queue - using a single atomic operation.
+     * (Is thread safe and non-blocking/non-waiting)
+     *
+     * @param first First element in chain
+     * @param last Last element in chain (all elements from first to last must already be linked via 'next' - last.next must be null)
+     */
+    public void enqueueChain(Queueable first, Queueable last) {
+        assert(last.next == null);
+
+        // swap last pointer
+        Queueable prev = this.last.getAndSet(last);
+
+        // set "next" of previous element
+        assert(prev != first);
+        prev.next = first;
+    }
+
+    /**
+     * Add all elements in array wrapper to the end of the queue (in array order) - using a single atomic operation.
+     * (Is thread safe and non-blocking/non-waiting)
+     *
+     * @param elements Elements to enqueue
+     */
+    public void enqueueAllRaw(ArrayWrapper <? extends Queueable > elements) {
+        if (elements.size() == 0) {
+            return;
+        }
+        linkChain(elements);
+        enqueueChain(elements.get(0), elements.get(elements.size() - 1));
+    }
+
     /**
      * Remove first element from queue and return it.
      * (May only be called by a single reader thread concurrently.)
@@ -123,6 +156,8 @@ class RawWonderQueueFast extends Queueable {
  * (for efficiency reasons; problem
  * is that 'last' will point to reused element if last element is dequeued; maybe
  * there's a better way (?) )
+ * Therefore, there is no dequeueWaiting() - a consumer could wait forever for
+ * the last element (use WonderQueue or WonderQueueBounded with a ConsumerWaiter instead).
  */
 public class WonderQueueFast<T extends Queueable> extends RawWonderQueueFast {
 
@@ -141,6 +176,16 @@ public class WonderQueueFast<T extends Queueable> extends RawWonderQueueFast {
         enqueueRaw(pd);
     }
 
+    /**
+     * Add all elements in array wrapper to the end of the queue (in array order) - using a single atomic operation.
+     * Is thread safe and non-blocking/non-waiting
+     *
+     * @param elements Elements to enqueue
+     */
+    public void enqueueAll(ArrayWrapper<T> elements) {
+        enqueueAllRaw(elements);
+    }
+
     /**
      * Remove first element from queue and return it.
      * May only be called by a single reader thread concurrently.
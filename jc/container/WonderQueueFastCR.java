@@ -21,6 +21,7 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.container;
 
+import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
 
 /**
  * @author Max Reichardt
@@ -55,6 +56,16 @@ public class WonderQueueFastCR<T extends Queueable> extends RawWonderQueueFast {
         enqueueRaw(pd);
     }
 
+    /**
+     * Add all elements in array wrapper to the end of the queue (in array order) - using a single atomic operation.
+     * Is thread safe and non-blocking/non-waiting
+     *
+     * @param elements Elements to enqueue
+     */
+    public void enqueueAll(ArrayWrapper<T> elements) {
+        enqueueAllRaw(elements);
+    }
+
     /**
      * Remove first element from queue and return it.
      * May only be called by a single reader thread concurrently.
@@ -32,7 +32,7 @@ package org.rrlib.finroc_core_utils.jc.container;
  * In this variant, all elements are dequeued.
  * It's also the fastest variant.
  */
-class RawWonderQueueTL extends Queueable {
+class RawWonderQueueTL extends Queueable implements ReusableOwner {
 
     /** Pointer to last element in queue - never null */
     private Queueable last = this;
@@ -0,0 +1,256 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.container;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
+import org.rrlib.finroc_core_utils.jc.thread.ConsumerWaiter;
+
+/**
+ * @author Max Reichardt
+ *
+ * Padding before producer cursor
+ * (the following classes only exist to control the memory layout of WonderRingQueue:
+ * producer and consumer cursor are placed in different cache lines)
+ */
+@SuppressWarnings("unused")
+abstract class WonderRingQueuePad0 {
+    private long p01, p02, p03, p04, p05, p06, p07;
+}
+
+/**
+ * @author Max Reichardt
+ *
+ * Producer cursor of WonderRingQueue
+ */
+abstract class WonderRingQueueProducerCursor extends WonderRingQueuePad0 {
+
+    /** Updater for producer cursor */
+    protected static final AtomicLongFieldUpdater<WonderRingQueueProducerCursor> tailUpdater =
+        AtomicLongFieldUpdater.newUpdater(WonderRingQueueProducerCursor.class, "tail");
+
+    /** Position of next element to enqueue - used for "communication" among writers */
+    protected volatile long tail = 0;
+}
+
+/**
+ * @author Max Reichardt
+ *
+ * Padding between producer and consumer cursor
+ */
+@SuppressWarnings("unused")
+abstract class WonderRingQueuePad1 extends WonderRingQueueProducerCursor {
+    private long p11, p12, p13, p14, p15, p16, p17;
+}
+
+/**
+ * @author Max Reichardt
+ *
+ * Consumer cursor of WonderRingQueue
+ */
+abstract class WonderRingQueueConsumerCursor extends WonderRingQueuePad1 {
+
+    /** Position of next element to dequeue - only accessed by reader thread */
+    protected long head = 0;
+}
+
+/**
+ * @author Max Reichardt
+ *
+ * Padding after consumer cursor
+ */
+@SuppressWarnings("unused")
+abstract class WonderRingQueuePad2 extends WonderRingQueueConsumerCursor {
+    private long p21, p22, p23, p24, p25, p26, p27;
+}
+
+/**
+ * @author Max Reichardt
+ *
+ * This is a concurrent non-blocking bounded FIFO queue that is backed by an array
+ * (ring buffer with a per-slot sequence number).
+ * It is real-time-capable, since it does not allocate memory after construction.
+ *
+ * It allows concurrent enqueueing operations. Only a single thread may read from this queue.
+ * Unlike the linked WonderQueue variants, elements do not need to be Queueables and
+ * are stored in contiguous memory. Producers and the reader only contend on the slot they
+ * are accessing - not on a single 'last' pointer.
+ *
+ * Drawback: capacity is fixed. If the queue is full, enqueue fails.
+ *
+ * Implementation strategy:
+ * Each slot has a sequence number. Slot i is free for the producer with position p, if its sequence is p.
+ * After writing the element, the producer sets the sequence to p + 1 - which signals the reader
+ * that the element is available. After taking the element, the reader sets the sequence to p + capacity,
+ * which marks the slot free for the producer in the next round.
+ */
+public class WonderRingQueue<T> extends WonderRingQueuePad2 implements WaitableQueue<T> {
+
+    /** Elements in queue */
+    private final Object[] buffer;
+
+    /** Sequence number for each slot */
+    private final AtomicLongArray sequences;
+
+    /** Mask for slot index (capacity - 1) */
+    private final int mask;
+
+    /** Optional wait strategy for consumer - null if consumer does not wait (needs to be set before queue is used) */
+    private ConsumerWaiter consumerWaiter;
+
+    /**
+     * @param capacity Maximum number of elements in queue (is rounded up to the next power of two)
+     */
+    public WonderRingQueue(int capacity) {
+        assert(capacity > 0 && capacity <= (1 << 30));
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        buffer = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Add element to the end of the queue.
+     * (Is thread safe and non-blocking/non-waiting)
+     *
+     * @param element Element to enqueue
+     * @return True if element was enqueued - false if queue is full
+     */
+    public boolean enqueue(T element) {
+        assert(element != null);
+        long pos = tail;
+        int index;
+        while (true) {
+            index = (int)pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tailUpdater.compareAndSet(this, pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                return false; // slot has not been dequeued in last round => queue is full
+            }
+            pos = tail; // another writer was faster
+        }
+
+        buffer[index] = element;
+        sequences.lazySet(index, pos + 1); // publish element to reader
+
+        // wake up consumer if it is waiting (after CAS on tail - see isDrained())
+        ConsumerWaiter waiter = consumerWaiter;
+        if (waiter != null) {
+            waiter.signal();
+        }
+        return true;
+    }
+
+    /**
+     * Remove first element from queue and return it.
+     * (May only be called by a single reader thread concurrently.)
+     *
+     * @return Element that was dequeued - null if no element is available
+     */
+    @SuppressWarnings("unchecked")
+    public T dequeue() {
+        long pos = head;
+        int index = (int)pos & mask;
+        if (sequences.get(index) != pos + 1) {
+            return null; // queue empty - or element at head not fully available yet (delayed/preempted enqueue operation)
+        }
+        T result = (T)buffer[index];
+        buffer[index] = null;
+        sequences.lazySet(index, pos + buffer.length); // slot is free for next round
+        head = pos + 1;
+        return result;
+    }
+
+    /**
+     * Dequeue multiple elements at once
+     * (May only be called by a single reader thread concurrently.)
+     *
+     * @param buffer Buffer to write result to
+     * @param maxElements Maximum number of elements to dequeue
+     * @return Actual number of elements dequeued (can be less if queue has less elements)
+     */
+    @SuppressWarnings("unchecked")
+    public int dequeue(ArrayWrapper<T> buffer, int maxElements) {
+        long pos = head;
+        int count = 0;
+        while (count < maxElements) {
+            int index = (int)pos & mask;
+            if (sequences.get(index) != pos + 1) {
+                break;
+            }
+            buffer.set(count, (T)this.buffer[index]);
+            this.buffer[index] = null;
+            sequences.lazySet(index, pos + this.buffer.length);
+            pos++;
+            count++;
+        }
+        head = pos;
+        return count;
+    }
+
+    /**
+     * (Needs to be called before queue is used)
+     *
+     * @param consumerWaiter Wait strategy for consumer (enables dequeueWaiting()) - null for none
+     */
+    public void setConsumerWaiter(ConsumerWaiter consumerWaiter) {
+        this.consumerWaiter = consumerWaiter;
+    }
+
+    /**
+     * @return Wait strategy for consumer - null if none is set
+     */
+    public ConsumerWaiter getConsumerWaiter() {
+        return consumerWaiter;
+    }
+
+    /**
+     * @return Maximum number of elements in queue
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * (May only be called by reader thread - see WaitableQueue.isDrained())
+     *
+     * @return True if no element is in queue or being enqueued
+     */
+    public boolean isDrained() {
+        return tail == head; // producers increment tail with CAS - before they write the element
+    }
+
+    /**
+     * @return Is queue empty? (May only be called by reader thread)
+     */
+    public boolean isEmpty() {
+        return sequences.get((int)head & mask) != head + 1;
+    }
+}
@@ -32,29 +32,67 @@ import org.rrlib.finroc_core_utils.jc.container.AllocationRegister;
  * Stamped Pointer implementation.
  * Pointer is not a direct pointer - but rather an index in the ReusablesRegister.
  *
- * Stamp can be 0-255 ; there can be a maximum of 16.7 million objects in the ReusablesRegister
+ * By default, stamp can be 0-255 ; there can be a maximum of 16.7 million objects in the ReusablesRegister.
+ * The split between index and stamp bits can be configured per instance (e.g. 20/12 or 16/16):
+ * More stamp bits make ABA problems less likely - but limit the indices of objects that can be stored.
+ * Storing an object whose index exceeds the maximum index causes an IllegalArgumentException.
  */
 public class AtomicStampedPtrIdx32<T extends AbstractReusable> extends AbstractAtomicStampedPtr<T> {
 
     /** wrapped atomic pointer */
     private AtomicInteger wrapped = new AtomicInteger();
 
-    /** Number of bits for index */
+    /** Default number of bits for index */
     public static final int INDEX_BITS = 24;
 
-    /** Number of bits for stamp */
+    /** Default number of bits for stamp */
     public static final int STAMP_BITS = 8;
 
-    /** Maximum index */
+    /** Maximum index (with default split) */
     public static final int MAX_INDEX = (1 << INDEX_BITS) - 1;
 
-    /** Maximum stamp */
+    /** Maximum stamp (with default split) */
     public static final int MAX_STAMP = (1 << STAMP_BITS) - 1;
 
+    /** Number of bits for stamp in this instance */
+    private final int stampBits;
+
+    /** Maximum index in this instance */
+    private final int maxIndex;
+
+    /** Maximum stamp in this instance */
+    private final int maxStamp;
+
     //Cpp typedef int32 raw_t;
 
     public AtomicStampedPtrIdx32() {
-        assert(INDEX_BITS + STAMP_BITS == 32);
+        this(INDEX_BITS);
+    }
+
+    /**
+     * @param indexBits Number of bits for index (the remaining 32 - indexBits bits are used for stamp)
+     */
+    public AtomicStampedPtrIdx32(int indexBits) {
+        if (indexBits < 1 || indexBits > 31) {
+            throw new IllegalArgumentException("Invalid number of index bits: " + indexBits);
+        }
+        stampBits = 32 - indexBits;
+        maxIndex = (1 << indexBits) - 1;
+        maxStamp = (int)((1L << stampBits) - 1);
+    }
+
+    /**
+     * @return Maximum index of objects that can be stored in this instance
+     */
+    public int getMaxIndex() {
+        return maxIndex;
+    }
+
+    /**
+     * @return Maximum stamp in this instance
+     */
+    public int getMaxStamp() {
+        return maxStamp;
     }
 
     @Override
@@ -107,15 +145,19 @@ public class AtomicStampedPtrIdx32<T extends AbstractReusable> extends AbstractA
 
     /**
      * Convert pointer and stamp to raw integer value conatining both
+     * (throws IllegalArgumentException, if pointer's register index exceeds maximum index of this instance)
      *
      * @param pointer Pointer
      * @param stamp Stamp
      * @return Raw integer value that contains stamp and pointer
      */
     public int merge(T pointer, int stamp) {
-        assert(pointer.getRegisterIndex() <= MAX_INDEX);
-        assert(stamp <= MAX_STAMP);
-        return (pointer.getRegisterIndex() << STAMP_BITS) | stamp;
+        int index = pointer.getRegisterIndex();
+        if (index < 0 || index > maxIndex) { // not registered - or AllocationRegister handed out more indices than fit in this instance
+            throw new IllegalArgumentException("Register index " + index + " of pointer is outside of range 0.." + maxIndex + " supported by stamped pointer (" + (32 - stampBits) + " index bits)");
+        }
+        assert(stamp >= 0 && stamp <= maxStamp);
+        return (index << stampBits) | stamp;
     }
 
     /**
@@ -125,14 +167,25 @@ public class AtomicStampedPtrIdx32<T extends AbstractReusable> extends AbstractA
      */
     @SuppressWarnings("unchecked")
     public T getPointer(int raw) {
-        return (T)AllocationRegister.getByIndex(raw >>> STAMP_BITS);
+        return (T)AllocationRegister.getByIndex(raw >>> stampBits);
+    }
+
+    /**
+     * Extract stamp from raw integer (with index/stamp split of this instance)
+     *
+     * @return Stamp
+     */
+    public int extractStamp(int raw) {
+        return raw & maxStamp;
     }
 
     /**
-     * Extract stamp from raw integer
+     * Extract stamp from raw integer - with default index/stamp split
      *
      * @return Stamp
+     * @deprecated Only correct for instances with default split - use extractStamp()
      */
+    @Deprecated
     public static int getStamp(int raw) {
         return raw & MAX_STAMP;
     }
@@ -144,7 +197,7 @@ public class AtomicStampedPtrIdx32<T extends AbstractReusable> extends AbstractA
 
     @Override
     public int getStamp() {
-        return getStamp(wrapped.get());
+        return extractStamp(wrapped.get());
     }
 
 }
@@ -36,8 +36,8 @@ import org.rrlib.finroc_core_utils.jc.container.AllocationRegister;
  */
 public class AtomicStampedPtrIdx64<T extends AbstractReusable> extends AbstractAtomicStampedPtr<T> {
 
-    /** wrapped atomic pointer */
-    private AtomicLong wrapped = new AtomicLong();
+    /** wrapped atomic pointer (null in subclasses that store the raw value themselves) */
+    private final AtomicLong wrapped;
 
     /** Number of bits for index */
     public static final int INDEX_BITS = 32;
@@ -54,7 +54,15 @@ public class AtomicStampedPtrIdx64<T extends AbstractReusable> extends AbstractA
     //Cpp typedef int64 raw_t;
 
     public AtomicStampedPtrIdx64() {
+        this(true);
+    }
+
+    /**
+     * @param allocateWrapped Allocate wrapped atomic pointer? (false for subclasses that override the raw operations)
+     */
+    protected AtomicStampedPtrIdx64(boolean allocateWrapped) {
         assert(INDEX_BITS + STAMP_BITS == 64);
+        wrapped = allocateWrapped ? new AtomicLong() : null;
     }
 
     @Override
@@ -86,7 +94,7 @@ public class AtomicStampedPtrIdx64<T extends AbstractReusable> extends AbstractA
 
     @Override
     public void set(T pointer, int stamp) {
-        wrapped.set(merge(pointer, stamp));
+        set(merge(pointer, stamp));
     }
 
     /**
@@ -143,12 +151,12 @@ public class AtomicStampedPtrIdx64<T extends AbstractReusable> extends AbstractA
 
     @Override
     public T getPointer() {
-        return getPointer(wrapped.get());
+        return getPointer(getRaw());
     }
 
     @Override
     public int getStamp() {
-        return getStamp(wrapped.get());
+        return getStamp(getRaw());
     }
 
     public String toString() {
@@ -0,0 +1,116 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.stampedptr;
+
+import org.rrlib.finroc_core_utils.jc.PaddedAtomicReference;
+import org.rrlib.finroc_core_utils.jc.container.AbstractReusable;
+
+/**
+ * @author Max Reichardt
+ *
+ * Stamped Pointer implementation that stores a direct reference to the object.
+ *
+ * Pointer and stamp are stored in an immutable holder object - which is replaced using compare-and-set.
+ * Therefore, getPointer() does not need to look up the object in the AllocationRegister (as AtomicStampedPtrIdx64 does).
+ * Drawback: every successful set/compareAndSet operation allocates a new holder object.
+ *
+ * The holder additionally contains the raw value of AtomicStampedPtrIdx64 - so this class can be used
+ * wherever the raw API of AtomicStampedPtrIdx64 is used (e.g. in WonderQueueBounded).
+ * Extracting the pointer from the current raw value does not need the AllocationRegister.
+ * Only for outdated raw values (and for raw set operations without pointer) it is still used.
+ * (The holder object avoids the ABA problem itself - the stamp is maintained nevertheless, as it is
+ *  part of the raw value and may carry information - such as flags and counters)
+ */
+public class AtomicStampedPtrRef<T extends AbstractReusable> extends AtomicStampedPtrIdx64<T> {
+
+    /** Current holder with pointer and stamp (padded: pointers are typically heavily written) */
+    private final PaddedAtomicReference<Holder<T>> current = new PaddedAtomicReference<Holder<T>>(new Holder<T>(0, null));
+
+    public AtomicStampedPtrRef() {
+        super(false);
+    }
+
+    @Override
+    public void set(T pointer, int stamp) {
+        current.set(new Holder<T>(merge(pointer, stamp), pointer));
+    }
+
+    @Override
+    public void set(long raw) {
+        current.set(new Holder<T>(raw, super.getPointer(raw)));
+    }
+
+    @Override
+    public long getRaw() {
+        return current.get().raw;
+    }
+
+    @Override
+    public boolean compareAndSet(T expectedPointer, int expectedStamp, T setPointer, int setStamp) {
+        return compareAndSet(merge(expectedPointer, expectedStamp), setPointer, setStamp);
+    }
+
+    @Override
+    public boolean compareAndSet(long expect, T setPointer, int setStamp) {
+        Holder<T> h = current.get();
+        return h.raw == expect && current.compareAndSet(h, new Holder<T>(merge(setPointer, setStamp), setPointer));
+    }
+
+    @Override
+    public boolean compareAndSet(long rawExpect, long rawSet) {
+        Holder<T> h = current.get();
+        return h.raw == rawExpect && current.compareAndSet(h, new Holder<T>(rawSet, super.getPointer(rawSet)));
+    }
+
+    @Override
+    public T getPointer(long raw) {
+        Holder<T> h = current.get();
+        return h.raw == raw ? h.pointer : super.getPointer(raw);
+    }
+
+    @Override
+    public T getPointer() {
+        return current.get().pointer;
+    }
+
+    @Override
+    public int getStamp() {
+        return getStamp(current.get().raw);
+    }
+
+    /**
+     * Immutable holder for pointer and stamp
+     */
+    private static class Holder<T> {
+
+        /** Raw value (as in AtomicStampedPtrIdx64) */
+        private final long raw;
+
+        /** Pointer */
+        private final T pointer;
+
+        private Holder(long raw, T pointer) {
+            this.raw = raw;
+            this.pointer = pointer;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.stampedptr;
+
+import org.rrlib.finroc_core_utils.jc.PaddedAtomicLong;
+import org.rrlib.finroc_core_utils.jc.container.AbstractReusable;
+
+/**
+ * @author Max Reichardt
+ *
+ * AtomicStampedPtrIdx64 whose raw value occupies cache line(s) of its own.
+ *
+ * Meant for stamped pointers that are heavily written by one group of threads
+ * while other threads work on neighbouring variables (e.g. first and last
+ * pointer of a queue).
+ */
+public class PaddedAtomicStampedPtrIdx64<T extends AbstractReusable> extends AtomicStampedPtrIdx64<T> {
+
+    /** wrapped padded atomic pointer */
+    private final PaddedAtomicLong paddedWrapped = new PaddedAtomicLong();
+
+    public PaddedAtomicStampedPtrIdx64() {
+        super(false);
+    }
+
+    @Override
+    public boolean compareAndSet(long rawExpect, long rawSet) {
+        return paddedWrapped.compareAndSet(rawExpect, rawSet);
+    }
+
+    @Override
+    public void set(long raw) {
+        paddedWrapped.set(raw);
+    }
+
+    @Override
+    public long getRaw() {
+        return paddedWrapped.get();
+    }
+}
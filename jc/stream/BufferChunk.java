@@ -21,6 +21,9 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.stream;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.rrlib.finroc_core_utils.jc.AtomicDoubleInt;
 import org.rrlib.finroc_core_utils.jc.container.Reusable;
 import org.rrlib.serialization.FixedBuffer;
@@ -32,9 +35,15 @@ import org.rrlib.serialization.FixedBuffer;
  */
 public class BufferChunk extends Reusable {
 
-    /** Size of a single buffer chunk */
+    /** Size of a single buffer chunk (default) */
     public static final int CHUNK_SIZE = 8192;
 
+    /** Size of chunks in smallest size class */
+    public static final int MIN_CHUNK_SIZE = 1024;
+
+    /** Number of size classes (chunk sizes are powers of two: MIN_CHUNK_SIZE ... MIN_CHUNK_SIZE << (SIZE_CLASSES - 1)) */
+    public static final int SIZE_CLASSES = 11;
+
     /** Next chunk in singly-linked list */
     public volatile BufferChunk next = null;
 
@@ -49,11 +58,72 @@ public class BufferChunk extends Reusable {
      */
     public AtomicDoubleInt curSize = new AtomicDoubleInt(1, 30);
 
+    /** State of concurrent appending to this chunk: committed bytes, final size and whether all earlier contents are published (see ChunkedBuffer.append()) */
+    public final AtomicLong appendState = new AtomicLong();
+
     /** (Virtual) absolute start position in ChunkedBuffer */
     public long virtualPosition = -1;
 
+    /** Size class of this chunk */
+    public final int sizeClass;
+
     public BufferChunk() {
-        buffer = new FixedBuffer(CHUNK_SIZE);
+        this(CHUNK_SIZE);
+    }
+
+    /**
+     * @param capacity Capacity of chunk (should be the chunk size of a size class)
+     */
+    public BufferChunk(int capacity) {
+        buffer = new FixedBuffer(capacity);
+        sizeClass = getSizeClass(capacity);
+    }
+
+    /**
+     * @param memory Memory for chunk (e.g. direct byte buffer for off-heap chunks)
+     */
+    public BufferChunk(ByteBuffer memory) {
+        buffer = new FixedBuffer(memory);
+        sizeClass = getSizeClass(memory.capacity());
+    }
+
+    /**
+     * @param sizeClass Size class
+     * @return Size of chunks in this size class
+     */
+    public static int getChunkSize(int sizeClass) {
+        return MIN_CHUNK_SIZE << sizeClass;
+    }
+
+    /**
+     * @param size Requested chunk size
+     * @return Smallest size class whose chunks have at least the requested size (largest size class if there is none)
+     */
+    public static int getSizeClass(int size) {
+        int sizeClass = 0;
+        while (sizeClass < SIZE_CLASSES - 1 && getChunkSize(sizeClass) < size) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    /**
+     * @return Is chunk memory located outside of the Java heap?
+     */
+    public boolean isDirect() {
+        return buffer.getBuffer().isDirect();
+    }
+
+    /**
+     * @param start Start offset in chunk
+     * @param end End offset in chunk
+     * @return Independent view on the specified range of this chunk (e.g. for writing to NIO channels)
+     */
+    public ByteBuffer getByteBuffer(int start, int end) {
+        ByteBuffer result = buffer.getBuffer().duplicate();
+        result.limit(end);
+        result.position(start);
+        return result;
     }
 
     /**
@@ -62,6 +132,7 @@ public class BufferChunk extends Reusable {
     public void recycle() {
         next = null;
         curSize.set(0, 0);
+        appendState.set(0);
         virtualPosition = 0;
         super.recycle();
     }
@@ -21,9 +21,20 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.stream;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.rrlib.finroc_core_utils.jc.GarbageCollector;
 import org.rrlib.finroc_core_utils.jc.HasDestructor;
 import org.rrlib.finroc_core_utils.jc.MutexLockOrder;
+import org.rrlib.finroc_core_utils.jc.Time;
 import org.rrlib.finroc_core_utils.jc.container.ReusablesPoolCR;
+import org.rrlib.finroc_core_utils.jc.thread.Task;
+import org.rrlib.finroc_core_utils.jc.thread.ThreadUtil;
 import org.rrlib.serialization.BinaryInputStream;
 import org.rrlib.serialization.BinaryOutputStream;
 import org.rrlib.serialization.BinarySerializable;
@@ -48,33 +59,135 @@ import org.rrlib.serialization.rtti.DataTypeBase;
  *  1) one concurrent writer and several concurrent readers. (no new writers while there are readers and buffer is not empty!)
  *  2) one concurrent writer and one "destructive source". (no new writers while there is a reader and buffer is not empty!)
  *
+ * Alternatively, several threads may append records concurrently (see append()) - instead of writing via a single Sink:
+ * Writers atomically reserve byte ranges (fetch-and-add on a write cursor), copy their records independently
+ * and then commit them by adding their length to a per-chunk counter - without waiting for each other.
+ * Records become visible to readers in reservation order: The writer whose commit completes a chunk (or finds all
+ * ranges reserved so far committed) publishes the contiguous prefix. Only the writer whose record does not fit in the
+ * current chunk anymore waits - for the records before it in this chunk - and appends the next chunk (writers of
+ * later records wait for this chunk).
+ * Records are not split across chunks - so they may be at most 1 MiB (BufferChunk.getChunkSize(BufferChunk.SIZE_CLASSES - 1)).
+ *
  * The destructive source recycles chunks after reading them.
  *
  * There are two modes of operation: blocking-readers and non-blocking-readers
  *
  * blocking-readers:
- * When buffer boundary is reached, readers block and wait for data.
- * However, this costs some performance.
+ * When buffer boundary is reached, readers block and wait for data (optionally with a timeout - see setReadTimeout()).
+ * Writers only acquire the monitor to wake up readers if a reader is actually waiting.
  *
  * non-blocking-readers:
  * Readers are non-blocking for performance reasons. If there are not enough bytes
  * in buffer an exception is thrown. So check with available() whether data is available
  * and only commit complete chunks.
+ *
+ * Chunks can be located on the Java heap (default) or off-heap (direct byte buffers carved from
+ * large slabs - see DirectChunkArena). Off-heap chunks can be written to NIO channels
+ * (see writeTo() and transferTo()) without copying them to native memory first.
+ *
+ * The chunk size can be chosen per buffer from the size classes in BufferChunk (pooled separately).
+ * Optionally, chunk size grows geometrically (doubles with every chunk up to a maximum) - so that
+ * large streams require few chunk switches, while small buffers waste little memory.
+ *
+ * Optionally, buffers spill to disk (see setSpillThreshold()): Above the threshold, further chunks
+ * are mapped from a temporary file - so heap usage stays bounded regardless of payload size.
+ * Mapped chunks are pooled across spill episodes. The temporary file is truncated and closed
+ * when no mapped chunk has been in use for SPILL_FILE_IDLE_PERIOD ms (or when releaseSpillFile() is called).
  */
 public class ChunkedBuffer implements BinarySerializable, ConstSource, Sink, HasDestructor, Clearable {
 
     /** First chunk in buffer - only changed by reader - next ones can be determined following links through "next"-attributes*/
     protected BufferChunk first;
 
-    /** Pool with chunks */
-    private static ReusablesPoolCR<BufferChunk> chunks;
+    /** Pools with chunks (index is size class) */
+    private static ReusablesPoolCR<BufferChunk>[] chunks;
+
+    /** Pools with off-heap chunks (index is size class) */
+    private static ReusablesPoolCR<BufferChunk>[] directChunks;
+
+    /** Memory for off-heap chunks */
+    private static DirectChunkArena directChunkArena;
+
+    /** Pools with chunks mapped from spill file (index is size class) */
+    private static ReusablesPoolCR<BufferChunk>[] mappedChunks;
+
+    /** Memory for chunks mapped from spill file - created when it is needed first (and released when spill file has been idle for some time - see releaseSpillFile()) */
+    private static DirectChunkArena mappedChunkArena;
+
+    /** Number of chunks mapped from spill file that are currently in use (guarded by mappedChunkLock) */
+    private static int mappedChunksInUse;
+
+    /** Time when the last mapped chunk in use was recycled (guarded by mappedChunkLock) */
+    private static long mappedChunksIdleSince;
+
+    /** Guards mapped chunk pools and arena (separate from class lock, so that spilling does not block creation of other chunks) */
+    private static final Object mappedChunkLock = new Object();
+
+    /** Period of time without mapped chunks in use, after which spill file is released by garbage collector thread (in ms) */
+    public static final long SPILL_FILE_IDLE_PERIOD = 10000;
+
+    /** Task executed by garbage collector thread that releases spill file when idle - registered while spill file exists */
+    private static final Task spillFileReleaseTask = new Task() {
+        @Override
+        public void executeTask() {
+            synchronized (mappedChunkLock) {
+                if (mappedChunksInUse > 0 || Time.getCoarse() - mappedChunksIdleSince < SPILL_FILE_IDLE_PERIOD) {
+                    return;
+                }
+            }
+            releaseSpillFile();
+        }
+    };
 
     /** Use blocking readers? */
     protected final boolean blockingReaders;
 
+    /** Use off-heap chunks? */
+    protected final boolean offHeap;
+
+    /** Size class of first chunk */
+    protected final int initialSizeClass;
+
+    /** Size class that chunk size grows to (equals initialSizeClass if chunk size is constant) */
+    protected final int maxSizeClass;
+
+    /** Size of buffer contents (in bytes) above which further chunks are mapped from spill file - negative values disable spilling */
+    private volatile long spillThreshold = -1;
+
     /** Number of written bytes - only set by reader - increases monotonically with every "official" commit */
     protected volatile long writtenBytes = 0;
 
+    /** Updater for writtenBytes (appending writers publish records with compare-and-set) */
+    private static final AtomicLongFieldUpdater<ChunkedBuffer> writtenBytesUpdater = AtomicLongFieldUpdater.newUpdater(ChunkedBuffer.class, "writtenBytes");
+
+    /** Number of readers that are waiting (or about to wait) for data (blocking-readers only) */
+    private final AtomicInteger waitingReaders = new AtomicInteger();
+
+    /** Maximum time that blocking readers wait for data (in ms) - 0 means no limit */
+    private volatile long readTimeout;
+
+    /** Write cursor for append(): (Virtual) absolute position up to which byte ranges have been reserved */
+    private final AtomicLong appendCursor = new AtomicLong();
+
+    /** Last chunk in buffer when using append() - only changed by the writer whose record does not fit in it anymore */
+    private volatile BufferChunk appendTail;
+
+    /** Number of spin iterations before appending writers yield while waiting for other appending writers (see appendReserved()) */
+    private static final int APPEND_SPINS = 128;
+
+    /**
+     * Layout of BufferChunk.appendState:
+     * [1 bit] Are all contents before chunk published? ("head")
+     * [31 bit] Final size of chunk + 1 (0 while writers may still reserve ranges in chunk)
+     * [31 bit] Number of committed bytes in chunk
+     */
+    private static final long APPEND_HEAD = 1L << 62;
+    private static final int APPEND_SIZE_SHIFT = 31;
+    private static final long APPEND_MASK = (1L << 31) - 1;
+
+    /** Set if an appending writer failed after reserving its range - further records are rejected then (as they can never be published) */
+    private volatile Throwable appendFailure;
+
     /** "Destructive source" */
     protected DestructiveSource destructiveSource = new DestructiveSource();
 
@@ -86,7 +199,22 @@ public class ChunkedBuffer implements BinarySerializable, ConstSource, Sink, Has
     public final static DataTypeBase TYPE = new DataType<ChunkedBuffer>(ChunkedBuffer.class);
 
     public static void staticInit() {
-        chunks = new ReusablesPoolCR<BufferChunk>();
+        chunks = createChunkPools();
+        directChunks = createChunkPools();
+        mappedChunks = createChunkPools();
+        directChunkArena = new DirectChunkArena();
+    }
+
+    /**
+     * @return Array with a new chunk pool for every size class
+     */
+    @SuppressWarnings("unchecked")
+    private static ReusablesPoolCR<BufferChunk>[] createChunkPools() {
+        ReusablesPoolCR<BufferChunk>[] pools = (ReusablesPoolCR<BufferChunk>[])new ReusablesPoolCR<?>[BufferChunk.SIZE_CLASSES]; // generic array creation is not possible
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ReusablesPoolCR<BufferChunk>();
+        }
+        return pools;
     }
 
     public ChunkedBuffer() {
@@ -94,8 +222,31 @@ public class ChunkedBuffer implements BinarySerializable, ConstSource, Sink, Has
     }
 
     public ChunkedBuffer(boolean blockingReaders) {
-        first = getUnusedChunk();
+        this(blockingReaders, false);
+    }
+
+    /**
+     * @param blockingReaders Use blocking readers?
+     * @param offHeap Use off-heap chunks (direct byte buffers)?
+     */
+    public ChunkedBuffer(boolean blockingReaders, boolean offHeap) {
+        this(blockingReaders, offHeap, BufferChunk.CHUNK_SIZE, BufferChunk.CHUNK_SIZE);
+    }
+
+    /**
+     * @param blockingReaders Use blocking readers?
+     * @param offHeap Use off-heap chunks (direct byte buffers)?
+     * @param chunkSize Size of first chunk (rounded up to chunk size of a size class - see BufferChunk)
+     * @param maxChunkSize Chunk size doubles with every further chunk - until this size is reached (same as chunkSize for constant chunk size)
+     */
+    public ChunkedBuffer(boolean blockingReaders, boolean offHeap, int chunkSize, int maxChunkSize) {
+        this.offHeap = offHeap;
+        initialSizeClass = BufferChunk.getSizeClass(chunkSize);
+        maxSizeClass = Math.max(initialSizeClass, BufferChunk.getSizeClass(maxChunkSize));
+        first = getUnusedChunk(offHeap, initialSizeClass);
         first.virtualPosition = 0;
+        first.appendState.set(APPEND_HEAD);
+        appendTail = first;
 //      last = first;
         this.blockingReaders = blockingReaders;
     }
@@ -109,30 +260,457 @@ public class ChunkedBuffer implements BinarySerializable, ConstSource, Sink, Has
      * @return Unused chunk
      */
     protected static BufferChunk getUnusedChunk() {
-        BufferChunk result = chunks.getUnused();
-        return result == null ? createChunk() : result;
+        return getUnusedChunk(false, BufferChunk.getSizeClass(BufferChunk.CHUNK_SIZE));
+    }
+
+    /**
+     * @param direct Off-heap chunk?
+     * @param sizeClass Size class of chunk
+     * @return Unused chunk
+     */
+    protected static BufferChunk getUnusedChunk(boolean direct, int sizeClass) {
+        BufferChunk result = direct ? directChunks[sizeClass].getUnused() : chunks[sizeClass].getUnused();
+        return result == null ? createChunk(direct, sizeClass) : result;
     }
 
     /**
+     * @param direct Off-heap chunk?
+     * @param sizeClass Size class of chunk
      * @return Newly created unused chunk
      */
-    private static synchronized BufferChunk createChunk() {
-        BufferChunk result = new BufferChunk();
-        chunks.attach(result, false);
+    private static synchronized BufferChunk createChunk(boolean direct, int sizeClass) {
+        int size = BufferChunk.getChunkSize(sizeClass);
+        if (direct) {
+            BufferChunk result = new BufferChunk(directChunkArena.allocate(size));
+            directChunks[sizeClass].attach(result, false);
+            return result;
+        }
+        BufferChunk result = new BufferChunk(size);
+        chunks[sizeClass].attach(result, false);
+        return result;
+    }
+
+    /**
+     * (Mapped chunks are only used by buffers that have grown beyond their spill threshold - so contention on mappedChunkLock is not an issue here.
+     *  Spill file creation and mapping of new slabs happen outside of the lock - while mappedChunksInUse keeps the arena from being released.)
+     *
+     * @param sizeClass Size class of chunk
+     * @return Unused chunk mapped from spill file
+     */
+    private static BufferChunk getUnusedMappedChunk(int sizeClass) {
+        DirectChunkArena arena;
+        ReusablesPoolCR<BufferChunk> pool;
+        synchronized (mappedChunkLock) {
+            mappedChunksInUse++;
+            arena = mappedChunkArena;
+            pool = mappedChunks[sizeClass];
+            if (arena != null) {
+                BufferChunk result = pool.getUnused();
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+
+        try {
+            if (arena == null) {
+                arena = openMappedChunkArena();
+            }
+            BufferChunk result = new MappedChunk(arena.allocate(BufferChunk.getChunkSize(sizeClass)));
+            pool.attach(result, false);
+            return result;
+        } catch (RuntimeException e) {
+            mappedChunkRecycled(); // no chunk is in use after all
+            throw e;
+        }
+    }
+
+    /**
+     * Creates spill file and arena for mapped chunks - unless another thread did so concurrently.
+     * (Caller must have incremented mappedChunksInUse, so that arena cannot be released meanwhile)
+     *
+     * @return Arena for mapped chunks
+     */
+    private static DirectChunkArena openMappedChunkArena() {
+        DirectChunkArena created = new DirectChunkArena(new SpillFile());
+        DirectChunkArena existing;
+        synchronized (mappedChunkLock) {
+            existing = mappedChunkArena;
+            if (existing == null) {
+                mappedChunkArena = created;
+                GarbageCollector.addPeriodicTask(spillFileReleaseTask);
+                return created;
+            }
+        }
+        created.close(); // another thread was faster
+        return existing;
+    }
+
+    /**
+     * Called after a chunk mapped from spill file has been recycled.
+     * Mapped chunks and spill file are kept for further spilling - see releaseSpillFile().
+     */
+    private static void mappedChunkRecycled() {
+        synchronized (mappedChunkLock) {
+            assert(mappedChunksInUse > 0);
+            mappedChunksInUse--;
+            if (mappedChunksInUse == 0) {
+                mappedChunksIdleSince = Time.getCoarse();
+            }
+        }
+    }
+
+    /**
+     * Discards all chunks mapped from spill file - and truncates and closes spill file (releasing its disk space) -
+     * if no mapped chunk is currently in use. A new spill file is created, when a buffer spills again.
+     * (Done automatically by garbage collector thread, after spill file has not been used for SPILL_FILE_IDLE_PERIOD ms)
+     *
+     * @return True if spill file was released - false if there is none or mapped chunks are still in use
+     */
+    public static boolean releaseSpillFile() {
+        ReusablesPoolCR<BufferChunk>[] pools;
+        DirectChunkArena arena;
+        synchronized (mappedChunkLock) {
+            if (mappedChunkArena == null || mappedChunksInUse > 0) {
+                return false;
+            }
+            pools = mappedChunks;
+            arena = mappedChunkArena;
+            mappedChunks = createChunkPools();
+            mappedChunkArena = null;
+            GarbageCollector.removePeriodicTask(spillFileReleaseTask);
+        }
+        for (ReusablesPoolCR<BufferChunk> pool : pools) {
+            pool.controlledDelete();
+        }
+        arena.close();
+        return true;
+    }
+
+    /**
+     * @param current Current last chunk
+     * @return Unused chunk to append to current chunk (with the next size class, if chunk size grows - mapped from spill file, if buffer has grown beyond spill threshold)
+     */
+    private BufferChunk getNextChunk(BufferChunk current) {
+        int sizeClass = Math.min(Math.max(current.sizeClass + 1, initialSizeClass), maxSizeClass);
+        long threshold = spillThreshold;
+        if (threshold >= 0) {
+            long readPos = destructiveSource.readPos; // only reader-side state that writers access ('first' is not - reader advances readPos along with it)
+            if (current.virtualPosition + current.buffer.capacity() - readPos >= threshold) {
+                return getUnusedMappedChunk(sizeClass);
+            }
+        }
+        return getUnusedChunk(offHeap, sizeClass);
+    }
+
+    /**
+     * @param spillThreshold Size of buffer contents (in bytes) above which further chunks are mapped from a temporary file - negative values disable spilling
+     */
+    public void setSpillThreshold(long spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * @return Size of buffer contents (in bytes) above which further chunks are mapped from a temporary file - negative values disable spilling
+     */
+    public long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * @return Does this buffer use off-heap chunks?
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Views on the readable contents of this buffer - one per chunk.
+     * They can be passed to a GatheringByteChannel - for off-heap chunks, without any intermediate copy.
+     * (Should be called by reader - contents are not consumed)
+     *
+     * @return Byte buffers with the current contents of this buffer (independent positions and limits)
+     */
+    public ByteBuffer[] getByteBuffers() {
+        long written = writtenBytes;
+        long start = Math.max(destructiveSource.readPos, first.virtualPosition);
+        int count = 0;
+        for (BufferChunk bc = first; bc != null && bc.virtualPosition < written; bc = nextAvailable(bc)) {
+            count++;
+        }
+        ByteBuffer[] result = new ByteBuffer[count];
+        BufferChunk bc = first;
+        for (int i = 0; i < count; i++, bc = bc.next) {
+            int chunkStart = (int)(Math.max(start, bc.virtualPosition) - bc.virtualPosition);
+            int chunkEnd = minSizeT(bc.curSize.getVal2(), (int)(written - bc.virtualPosition));
+            result[i] = bc.getByteBuffer(chunkStart, chunkEnd);
+        }
         return result;
     }
 
+    /**
+     * @param bc Chunk
+     * @return Next chunk - null if there is none or if writer has not completely set it up yet ("next available" flag is not set)
+     */
+    private static BufferChunk nextAvailable(BufferChunk bc) {
+        return bc.curSize.getVal1() != 0 ? bc.next : null;
+    }
+
+    /**
+     * Write current contents of this buffer to channel - handing all chunks to the channel in gathering writes.
+     * Contents are not consumed.
+     * (Should be called by reader. Heap chunks are possibly copied by the channel implementation - off-heap chunks are not)
+     *
+     * @param channel Channel to write to
+     * @return Number of bytes written (less than getCurrentSize(), if a non-blocking channel could not accept all data)
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        return write(channel, getByteBuffers());
+    }
+
+    /**
+     * Write current contents of this buffer to channel - handing all chunks to the channel in gathering writes.
+     * Written contents are consumed (like reading them with the destructive source) - chunks that were sent completely are recycled.
+     * (May only be called by the reader thread - and not while destructive source is in use)
+     *
+     * @param channel Channel to write to
+     * @return Number of bytes written (less than getCurrentSize(), if a non-blocking channel could not accept all data)
+     */
+    public long transferTo(GatheringByteChannel channel) throws IOException {
+        assert(destructiveSource.user == null) : "Destructive source is currently in use";
+        long readPos = Math.max(destructiveSource.readPos, first.virtualPosition);
+        long written = write(channel, getByteBuffers());
+        readPos += written;
+
+        // recycle chunks that were sent completely (writer has moved on to next chunk)
+        while (first.curSize.getVal1() != 0 && first.next != null && first.next.virtualPosition <= readPos) {
+            BufferChunk old = first;
+            first = first.next;
+            old.recycle();
+        }
+        destructiveSource.readPos = readPos;
+        return written;
+    }
+
+    /**
+     * Write byte buffers to channel
+     *
+     * @param channel Channel to write to
+     * @param buffers Buffers to write
+     * @return Number of bytes written
+     */
+    private static long write(GatheringByteChannel channel, ByteBuffer[] buffers) throws IOException {
+        long total = 0;
+        int offset = 0;
+        while (true) {
+            while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                offset++;
+            }
+            if (offset == buffers.length) {
+                return total;
+            }
+            long written = channel.write(buffers, offset, buffers.length - offset);
+            if (written <= 0) { // non-blocking channel cannot accept more data
+                return total;
+            }
+            total += written;
+        }
+    }
+
     /**
      * Clear buffer - Don't call this, while other threads are reading this buffer
      */
     public void clear() {
         writtenBytes = 0;
         first.curSize.set(0, 0);
+        BufferChunk bc = first.next;
         first.next = null;
         first.virtualPosition = 0;
+        first.appendState.set(APPEND_HEAD);
         destructiveSource.readPos = 0;
-        for (BufferChunk bc = first.next; bc != null; bc = bc.next) {
+        appendCursor.set(0);
+        appendTail = first;
+        appendFailure = null;
+        while (bc != null) {
+            BufferChunk next = bc.next;
             bc.recycle();
+            bc = next;
+        }
+    }
+
+    /**
+     * Append record to buffer.
+     * May be called by several writer threads concurrently (but must not be mixed with writing via Sink or deserialize() - unless clear() is called in between).
+     * Records are never split across chunks.
+     *
+     * @param data Array containing record
+     * @param offset Offset of record in array
+     * @param length Length of record (in bytes - must not exceed largest chunk size)
+     */
+    public void append(byte[] data, int offset, int length) {
+        append(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Append record to buffer.
+     * May be called by several writer threads concurrently (but must not be mixed with writing via Sink or deserialize() - unless clear() is called in between).
+     * Records are never split across chunks.
+     * If a writer fails after reserving space for its record (e.g. because no chunk can be allocated),
+     * later records can never be published - so appending them fails, too (until clear() is called).
+     *
+     * @param record Buffer containing record (from position to limit - position is advanced)
+     */
+    public void append(ByteBuffer record) {
+        int length = record.remaining();
+        if (length == 0) {
+            return; // nothing to commit (an empty range would share its start position with the next record)
+        }
+        if (length > BufferChunk.getChunkSize(BufferChunk.SIZE_CLASSES - 1)) {
+            throw new RuntimeException("Record too large for chunked buffer (" + length + " bytes)");
+        }
+
+        // reserve range
+        long start = appendCursor.getAndAdd(length);
+        try {
+            appendReserved(record, start, length);
+        } catch (Throwable t) {
+
+            // range will never be committed: reject further records
+            if (appendFailure == null) {
+                appendFailure = t;
+            }
+            throw t;
+        }
+    }
+
+    /**
+     * Copy record to reserved range and commit it - see append()
+     *
+     * @param record Buffer containing record (from position to limit - position is advanced)
+     * @param start (Virtual) absolute position of reserved range
+     * @param length Length of record
+     */
+    private void appendReserved(ByteBuffer record, long start, int length) {
+
+        // find chunk (the one that range was reserved in cannot be recycled before this record is committed)
+        BufferChunk bc;
+        for (int i = 0; ; i++) {
+            checkAppendFailure();
+            bc = appendTail;
+            long offset = start - bc.virtualPosition;
+            boolean fits = offset >= 0 && offset + length <= bc.buffer.capacity();
+            if (appendTail == bc) { // chunk was not replaced (and possibly recycled) while we checked
+                if (fits) {
+                    break;
+                } else if (offset >= 0 && offset <= bc.buffer.capacity()) {
+
+                    // first record that does not fit in chunk anymore: append next chunk - and fix size of this one
+                    // (once all earlier records in this chunk are committed - so that their writers do not miss the chunk)
+                    for (int j = 0; (bc.appendState.get() & APPEND_MASK) != offset; j++) {
+                        checkAppendFailure();
+                        awaitProgress(j);
+                    }
+                    BufferChunk next = getNextChunk(bc);
+                    if (next.buffer.capacity() < length) {
+                        next.recycle();
+                        next = getUnusedChunk(offHeap, BufferChunk.getSizeClass(length));
+                    }
+                    next.virtualPosition = start;
+                    next.curSize.set(0, next.buffer.capacity()); // readers are limited by writtenBytes
+                    bc.next = next;
+                    bc.curSize.set(1, (int)offset); // set this last, so that everything is ready, before reader thread starts...
+                    long vp = bc.virtualPosition;
+                    appendTail = next;
+                    commitAppended(bc, vp, (offset + 1) << APPEND_SIZE_SHIFT);
+                    continue;
+                }
+            }
+            awaitProgress(i); // wait until chunk was appended by another writer
+        }
+
+        // copy record and commit it
+        long vp = bc.virtualPosition;
+        int offset = (int)(start - vp);
+        if (bc.curSize.getRaw() == 0) {
+            bc.curSize.compareAndSet(0, 0, 0, bc.buffer.capacity()); // first chunk of buffer (further ones are set up when they are appended)
+        }
+        bc.getByteBuffer(offset, offset + length).put(record);
+        commitAppended(bc, vp, length);
+    }
+
+    /**
+     * Update append state of chunk (see APPEND_HEAD) - and publish contents that are complete.
+     *
+     * The atomic update returns the complete state - so exactly one thread completes a chunk (all bytes up to its final size committed
+     * and all earlier contents published). This thread publishes the chunk and passes 'head' to the next chunk (possibly completing it, too).
+     * Other threads publish committed bytes of the head chunk, if all ranges reserved so far are committed (the cursor is read after the update -
+     * so no range can be missing). Threads do not access the chunk after their update, since it might be recycled then.
+     *
+     * @param bc Chunk
+     * @param vp (Virtual) absolute start position of chunk
+     * @param delta Value to add to append state
+     */
+    private void commitAppended(BufferChunk bc, long vp, long delta) {
+        long state = bc.appendState.addAndGet(delta);
+        while ((state & APPEND_HEAD) != 0) { // otherwise, the thread that publishes the contents before this chunk continues with it
+            long committed = state & APPEND_MASK;
+            long size = ((state >>> APPEND_SIZE_SHIFT) & APPEND_MASK) - 1;
+            if (committed != size) {
+                if (appendCursor.get() - vp == committed) {
+                    publishAppended(vp + committed);
+                }
+                return;
+            }
+
+            // chunk is complete: publish it and continue with next one (next chunk has been set before size of this one)
+            BufferChunk next = bc.next;
+            long nextVp = next.virtualPosition;
+            publishAppended(vp + size);
+            bc = next;
+            vp = nextVp;
+            state = bc.appendState.addAndGet(APPEND_HEAD);
+        }
+    }
+
+    /**
+     * Publish appended records to readers
+     *
+     * @param position New value of writtenBytes (ignored, if it is already larger)
+     */
+    private void publishAppended(long position) {
+        while (true) {
+            long written = writtenBytes;
+            if (written >= position) {
+                return;
+            }
+            if (writtenBytesUpdater.compareAndSet(this, written, position)) {
+                signalReaders();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Throws exception if an earlier append() failed after reserving its range
+     * (then, later records can never be committed - until clear() is called)
+     */
+    private void checkAppendFailure() {
+        Throwable failure = appendFailure;
+        if (failure != null) {
+            throw new RuntimeException("Earlier record could not be appended to buffer - clear() buffer before appending further records", failure);
+        }
+    }
+
+    /**
+     * Wait for progress of other appending writers (spin first, then yield)
+     *
+     * @param iteration Number of previous unsuccessful iterations
+     */
+    private static void awaitProgress(int iteration) {
+        if (iteration < APPEND_SPINS) {
+            ThreadUtil.onSpinWait();
+        } else {
+            Thread.yield();
         }
     }
 
@@ -180,19 +758,7 @@ public class ChunkedBuffer implements BinarySerializable, ConstSource, Sink, Has
             if (!blockingReaders) {
                 throw new RuntimeException("Attempt to read outside of buffer with non-blocking readers");
             } else {
-                synchronized (this) {
-                    while (true) {
-                        written = writtenBytes;
-                        if ((long)(bc.virtualPosition + buffer.position + len) <= written) {
-                            break;
-                        }
-                        try {
-                            wait();
-                        } catch (InterruptedException e) {
-                            // continue;
-                        }
-                    }
-                }
+                written = waitUntilWritten(bc.virtualPosition + buffer.position + len);
             }
         }
 
@@ -289,7 +855,7 @@ public class ChunkedBuffer implements BinarySerializable, ConstSource, Sink, Has
 
         // commit buffer
         int newSize = buffer.position;
-        BufferChunk next = getUnusedChunk();
+        BufferChunk next = getNextChunk(bc);
         bc.next = next;
         next.virtualPosition = bc.virtualPosition + buffer.position;
         buffer.buffer = next.buffer;
@@ -314,43 +880,35 @@ public class ChunkedBuffer implements BinarySerializable, ConstSource, Sink, Has
         // read Size
         int size = is.readInt();
 
-        // number of required chunks
-        int chunkCount = (size + BufferChunk.CHUNK_SIZE - 1) / BufferChunk.CHUNK_SIZE;
-
         // the following is a little more complicated, but it is more efficient than recycling everything
 
-        // ensure we have the minimum number of chunks
+        // ensure that chunks provide enough capacity (chunks can have different sizes)
         BufferChunk current = first;
-        for (int i = 1; i < chunkCount; i++) {
+        first.virtualPosition = 0;
+        while (current.virtualPosition + current.buffer.capacity() < size) {
             BufferChunk next = current.next;
             if (next == null) {
-                next = getUnusedChunk();
+                next = getNextChunk(current);
                 current.next = next;
             }
+            next.virtualPosition = current.virtualPosition + current.buffer.capacity();
             current = next;
         }
 
         // recycle chunks that are too much
-        current = current.next;
-        while (current != null) {
-            BufferChunk next = current.next;
-            current.recycle();
-            current = next;
+        BufferChunk surplus = current.next;
+        current.next = null;
+        while (surplus != null) {
+            BufferChunk next = surplus.next;
+            surplus.recycle();
+            surplus = next;
         }
 
         // read chunks
-        current = first;
-        first.virtualPosition = 0;
-        for (int i = 0; i < chunkCount; i++) {
-            int read = minSizeT(size - ((int)current.virtualPosition), BufferChunk.CHUNK_SIZE);
+        for (current = first; current != null; current = current.next) {
+            int read = minSizeT(size - ((int)current.virtualPosition), current.buffer.capacity());
             is.readFully(current.buffer, 0, read);
             current.curSize.set(current.next == null ? 0 : 1, read);
-            if (current.next == null) {
-                break;
-            }
-
-            current.next.virtualPosition = current.virtualPosition + read;
-            current = current.next;
         }
 
         destructiveSource.readPos = 0;
@@ -387,13 +945,74 @@ public class ChunkedBuffer implements BinarySerializable, ConstSource, Sink, Has
         //System.out.println("Flushing " + bc.hashCode());
         assert(bc.curSize.getVal2() == buffer.position) : "please commit before flush";
         writtenBytes = bc.virtualPosition + buffer.position;
-        if (blockingReaders) {
+        signalReaders();
+    }
+
+    /**
+     * Wake up blocking readers that are waiting for data (called after writtenBytes has been increased)
+     */
+    private void signalReaders() {
+        if (blockingReaders && waitingReaders.get() > 0) {
             synchronized (this) {
                 notifyAll();
             }
         }
     }
 
+    /**
+     * Wait until the specified number of bytes has been written to buffer (blocking readers)
+     *
+     * Readers register in waitingReaders _before_ checking writtenBytes (both volatile) - and writers
+     * check waitingReaders _after_ setting writtenBytes. So either reader sees new value - or writer sees waiting reader.
+     *
+     * @param position Required value of writtenBytes
+     * @return Current value of writtenBytes (>= position)
+     */
+    private long waitUntilWritten(long position) {
+        long timeout = readTimeout;
+        long deadline = (timeout > 0) ? System.nanoTime() + timeout * 1000000L : 0;
+        waitingReaders.incrementAndGet();
+        try {
+            synchronized (this) {
+                while (true) {
+                    long written = writtenBytes;
+                    if (position <= written) {
+                        return written;
+                    }
+                    long waitMs = 0;
+                    if (timeout > 0) {
+                        long remainingNanos = deadline - System.nanoTime();
+                        if (remainingNanos <= 0) {
+                            throw new RuntimeException("Timeout waiting for data in chunked buffer (" + timeout + " ms)");
+                        }
+                        waitMs = Math.max(1, remainingNanos / 1000000L);
+                    }
+                    try {
+                        wait(waitMs);
+                    } catch (InterruptedException e) {
+                        // continue;
+                    }
+                }
+            }
+        } finally {
+            waitingReaders.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param timeoutMs Maximum time that blocking readers wait for data (in ms) - 0 means no limit. On timeout, a RuntimeException is thrown to reader.
+     */
+    public void setReadTimeout(long timeoutMs) {
+        readTimeout = timeoutMs;
+    }
+
+    /**
+     * @return Maximum time that blocking readers wait for data (in ms) - 0 means no limit
+     */
+    public long getReadTimeout() {
+        return readTimeout;
+    }
+
     /**
      * @return "Destructive source"
      */
@@ -401,13 +1020,29 @@ public class ChunkedBuffer implements BinarySerializable, ConstSource, Sink, Has
         return destructiveSource;
     }
 
+    /**
+     * Chunk mapped from spill file - keeps track of mapped chunks in use
+     */
+    private static class MappedChunk extends BufferChunk {
+
+        private MappedChunk(ByteBuffer memory) {
+            super(memory);
+        }
+
+        @Override
+        public void recycle() {
+            super.recycle();
+            mappedChunkRecycled();
+        }
+    }
+
     /**
      * "Desctructive Source"
      */
     private class DestructiveSource implements Source {
 
-        /** Current read position; */
-        private long readPos;
+        /** Current read position (volatile: writers read it when deciding whether to spill - see getNextChunk()) */
+        private volatile long readPos;
 
         /** Current user of Source */
         private BinaryInputStream user = null;
@@ -0,0 +1,114 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.stream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Max Reichardt
+ *
+ * Provides memory for off-heap buffer chunks.
+ *
+ * Allocating many small direct byte buffers is expensive (each one is page-aligned and
+ * registered with the JVM's cleaner) - so memory is allocated in large slabs,
+ * which chunk memory is carved from.
+ *
+ * Slabs are either allocated as direct byte buffers - or mapped from a temporary file
+ * (for chunks of buffers that spill to disk).
+ *
+ * Slab memory is not released while arena is in use - chunks are pooled and reused (see ChunkedBuffer).
+ * Arenas with slabs mapped from a file are closed after they have been idle for some time (see close() and ChunkedBuffer.releaseSpillFile()).
+ */
+class DirectChunkArena {
+
+    /** Size of a single slab (in bytes) */
+    public static final int SLAB_SIZE = 1024 * 1024;
+
+    /** Slab that memory is currently carved from - null if none has been allocated yet */
+    private ByteBuffer currentSlab;
+
+    /** Total number of bytes allocated in slabs */
+    private long allocatedBytes;
+
+    /** File that slabs are mapped from - null if slabs are allocated as direct byte buffers */
+    private final SpillFile file;
+
+    DirectChunkArena() {
+        this(null);
+    }
+
+    /**
+     * @param file File that slabs are mapped from - null if slabs are allocated as direct byte buffers
+     */
+    DirectChunkArena(SpillFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Obtain memory for a new chunk
+     *
+     * @param size Size of chunk (in bytes)
+     * @return Direct byte buffer with the specified capacity
+     */
+    synchronized ByteBuffer allocate(int size) {
+        if (size > SLAB_SIZE) {
+            return allocateSlab(size);
+        }
+        if (currentSlab == null || currentSlab.remaining() < size) {
+            currentSlab = allocateSlab(SLAB_SIZE);
+        }
+        int start = currentSlab.position();
+        currentSlab.limit(start + size);
+        ByteBuffer result = currentSlab.slice();
+        currentSlab.limit(currentSlab.capacity());
+        currentSlab.position(start + size);
+        return result;
+    }
+
+    /**
+     * @param size Size of slab
+     * @return New slab
+     */
+    private ByteBuffer allocateSlab(int size) {
+        ByteBuffer result = (file != null) ? file.map(allocatedBytes, size) : ByteBuffer.allocateDirect(size);
+        allocatedBytes += size;
+        return result;
+    }
+
+    /**
+     * Close file that slabs are mapped from (releases its disk space)
+     * Chunks allocated from this arena must not be used anymore after calling this.
+     */
+    synchronized void close() {
+        currentSlab = null;
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * @return Total number of bytes allocated in slabs
+     */
+    synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
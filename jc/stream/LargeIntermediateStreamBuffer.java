@@ -21,6 +21,8 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.stream;
 
+import java.nio.ByteBuffer;
+
 import org.rrlib.serialization.BinaryOutputStream;
 import org.rrlib.serialization.BufferInfo;
 import org.rrlib.serialization.FixedBuffer;
@@ -34,6 +36,14 @@ import org.rrlib.serialization.Sink;
  * when the data in between is very large.
  * In this case, this class can be used as an intermediate buffer.
  * It will grow until data is flushed
+ *
+ * Optionally, it spills to disk (see setSpillThreshold()): Above the threshold, contents are moved to
+ * a memory-mapped temporary file - so heap usage stays bounded regardless of payload size.
+ * Contents remain a single buffer with continuous positions (so skip offsets stay valid):
+ * The mapping starts at offset 0 of the file and is grown by remapping a larger region.
+ * When flushing, contents are written to the sink directly from the mapping.
+ * The mapping is reused after flushing - and released (with the temporary file) when the stream is closed or reset.
+ * As with the heap buffer, contents between two flushes are limited to 2 GB.
  */
 public class LargeIntermediateStreamBuffer extends MemoryBuffer {
 
@@ -43,25 +53,104 @@ public class LargeIntermediateStreamBuffer extends MemoryBuffer {
     /** Dummy buffer info */
     private BufferInfo dummyInfo = new BufferInfo();
 
+    /** Minimum size of spill file mapping (it grows by at least doubling its size) */
+    public static final int MIN_SPILL_MAPPING_SIZE = 16 * 1024 * 1024;
+
+    /** Size of contents (in bytes) above which buffer continues in spill file - negative values disable spilling */
+    private int spillThreshold = -1;
+
+    /** Spill file - null if it has not been created yet */
+    private SpillFile spillFile;
+
+    /** Mapping of spill file - starting at offset 0 (kept and reused after flush - until releaseSpillFile() is called) */
+    private FixedBuffer spillMapping;
+
+    /** Are contents currently in spill file mapping (instead of heap buffer)? */
+    private boolean spilled;
+
     public LargeIntermediateStreamBuffer(Sink sink) {
         this.sink = sink;
     }
 
     /**
-     * Flush all contents of intermediate buffer to sink
-     *
-     * @param byteCount Number of bytes to write
+     * Flush all contents of intermediate buffer to sink - and continue in heap buffer
      */
     private void flushContents(BinaryOutputStream outputStreamBuffer, BufferInfo buffer) {
         if (buffer.position > buffer.start) {
-            sink.directWrite(outputStreamBuffer, backend, buffer.start, buffer.position);
+            sink.directWrite(outputStreamBuffer, buffer.buffer, buffer.start, buffer.position - buffer.start);
             buffer.position = buffer.start;
         }
+        if (spilled) {
+            spilled = false;
+            buffer.buffer = backend;
+            buffer.setRange(buffer.start, backend.capacity());
+        }
+    }
+
+    /**
+     * Continue writing in spill file mapping: Moves contents from heap buffer to mapping (at the same positions) -
+     * or grows mapping, if buffer has spilled already.
+     *
+     * @param buffer Buffer info of output stream
+     * @param writeSizeHint Number of bytes that need to be written contiguously
+     */
+    private void spill(BufferInfo buffer, int writeSizeHint) {
+        long required = (long)buffer.position + writeSizeHint;
+        if (required > Integer.MAX_VALUE) {
+            throw new RuntimeException("Contents of intermediate buffer exceed maximum buffer size");
+        }
+        if (spillMapping == null || spillMapping.capacity() < required) {
+            long capacity = (spillMapping == null) ? 0 : spillMapping.capacity();
+            long newSize = Math.min(Integer.MAX_VALUE, Math.max(required, Math.max(2 * capacity, MIN_SPILL_MAPPING_SIZE)));
+            if (spillFile == null) {
+                spillFile = new SpillFile();
+            }
+            spillMapping = new FixedBuffer(spillFile.map(0, (int)newSize)); // contents written via the previous mapping are visible in the new one (same file region)
+        }
+        if (!spilled) {
+            ByteBuffer source = backend.getBuffer().duplicate();
+            source.limit(buffer.position);
+            source.position(buffer.start);
+            ByteBuffer destination = spillMapping.getBuffer().duplicate();
+            destination.position(buffer.start);
+            destination.put(source);
+            spilled = true;
+        }
+        buffer.buffer = spillMapping;
+        buffer.setRange(buffer.start, spillMapping.capacity());
+    }
+
+    /**
+     * @param spillThreshold Size of contents (in bytes) above which buffer continues in memory-mapped temporary file - negative values disable spilling
+     */
+    public void setSpillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * @return Size of contents (in bytes) above which buffer continues in memory-mapped temporary file - negative values disable spilling
+     */
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Truncate, close and delete spill file (must not be called while buffer has spilled)
+     * (Called automatically when the stream is closed or reset)
+     */
+    public void releaseSpillFile() {
+        assert(!spilled);
+        spillMapping = null;
+        if (spillFile != null) {
+            spillFile.close();
+            spillFile = null;
+        }
     }
 
     @Override
     public void close(BinaryOutputStream outputStreamBuffer, BufferInfo buffer) {
         flushContents(outputStreamBuffer, buffer);
+        releaseSpillFile();
         super.close(outputStreamBuffer, dummyInfo);
     }
 
@@ -77,6 +166,8 @@ public class LargeIntermediateStreamBuffer extends MemoryBuffer {
 
     @Override
     public void reset(BinaryOutputStream outputStreamBuffer, BufferInfo buffer) {
+        spilled = false;
+        releaseSpillFile();
         super.reset(outputStreamBuffer, buffer);
         sink.reset(outputStreamBuffer, dummyInfo);
     }
@@ -87,6 +178,9 @@ public class LargeIntermediateStreamBuffer extends MemoryBuffer {
             flushContents(outputStreamBuffer, buffer);
             buffer.position = buffer.start;
             return false;
+        } else if (spillThreshold >= 0 && (spilled || buffer.position + writeSizeHint > spillThreshold)) {
+            spill(buffer, writeSizeHint);
+            return false; // positions remain valid - so do skip offsets
         } else {
             return super.write(outputStreamBuffer, buffer, writeSizeHint);
         }
@@ -0,0 +1,90 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Max Reichardt
+ *
+ * Temporary file that buffers spill their contents to.
+ *
+ * Regions of the file are memory-mapped - so buffer contents do not occupy the Java heap
+ * and can be written to sinks/channels directly from the mapping.
+ * File is truncated and deleted when it is closed (or deleted when the JVM exits).
+ */
+class SpillFile {
+
+    /** Temporary file */
+    private final File file;
+
+    /** Channel to temporary file */
+    private final FileChannel channel;
+
+    SpillFile() {
+        try {
+            file = File.createTempFile("rrlib_spill", ".tmp");
+            file.deleteOnExit();
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create spill file", e);
+        }
+    }
+
+    /**
+     * Map region of file to memory (file grows if necessary)
+     *
+     * @param position Start of region in file
+     * @param size Size of region
+     * @return Mapped region
+     */
+    ByteBuffer map(long position, int size) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not map spill file", e);
+        }
+    }
+
+    /**
+     * Truncate, close and delete file
+     * (truncating releases disk space immediately - even if mappings have not been garbage collected yet.
+     *  Therefore, existing mappings must not be accessed anymore after calling this)
+     */
+    void close() {
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            // ignore - file is deleted anyway
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore - file is deleted anyway
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,147 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.thread;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * @author Max Reichardt
+ *
+ * Optional wait strategy for the (single) consumer of a queue.
+ *
+ * Instead of polling an empty queue at a fixed cycle time or spinning,
+ * the consumer spins for a number of empty polls - and then parks.
+ * Producers call signal() after enqueueing. This only unparks the consumer if it is
+ * actually waiting - otherwise it is a single volatile read (producers do not write any variable of the waiter).
+ *
+ * Protocol: Before parking, the consumer announces that it is waiting (volatile write) - and then checks
+ * once more whether the queue is drained. This check reads the variable that producers update with
+ * the atomic operation (CAS, getAndSet or volatile write) that publishes an element. Producers call
+ * signal() only after this operation. As volatile accesses are sequentially consistent,
+ * either the consumer's check sees the element or the producer sees the announcement.
+ * Hence, no wake-up is missed - also if queues link elements with plain or lazy writes after the
+ * publishing operation (the consumer spins while such an element is not available yet).
+ * Parking is limited to maxParkNanos at a time nevertheless (so that e.g. a timeout can be checked regularly).
+ */
+public class ConsumerWaiter {
+
+    /** Number of empty polls (with processor hint in between) before consumer parks */
+    private final int pollsBeforePark;
+
+    /** Maximum time (in ns) consumer is parked at a time */
+    private final long maxParkNanos;
+
+    /** Consumer thread that is parked - or about to park. Null if consumer is not waiting. */
+    private volatile Thread waitingThread;
+
+    /**
+     * Spin for 100 empty polls - then park for max. 1ms at a time
+     */
+    public ConsumerWaiter() {
+        this(100, 1000000);
+    }
+
+    /**
+     * @param pollsBeforePark Number of empty polls (with processor hint in between) before consumer parks
+     * @param maxParkNanos Maximum time (in ns) consumer is parked at a time
+     */
+    public ConsumerWaiter(int pollsBeforePark, long maxParkNanos) {
+        assert(pollsBeforePark >= 0 && maxParkNanos > 0);
+        this.pollsBeforePark = pollsBeforePark;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    /**
+     * (Called by producers after the atomic operation that publishes an enqueued element - see class comment)
+     * Wakes up consumer - if it is waiting
+     */
+    public void signal() {
+        Thread t = waitingThread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Poll queue until it returns an element - wait for one, if there is none (see class comment).
+     * (Called by consumer)
+     *
+     * @param poll Polls the queue once (returns null if the queue is empty)
+     * @param isDrained Checks whether queue is drained (see class comment and WaitableQueue.isDrained())
+     * @param timeoutMs Maximum time to wait in ms (negative values: wait indefinitely)
+     * @return Element that was polled - null if no element became available before timeout
+     */
+    public <T> T await(Supplier<T> poll, BooleanSupplier isDrained, long timeoutMs) {
+        long deadline = 0;
+        for (int i = 0;; i++) {
+            T result = poll.get();
+            if (result != null) {
+                done();
+                return result;
+            }
+            if (i == 0 && timeoutMs >= 0) {
+                deadline = System.nanoTime() + timeoutMs * 1000000L;
+            }
+            if (i < pollsBeforePark) {
+                ThreadUtil.onSpinWait();
+                continue;
+            }
+
+            long parkNanos = maxParkNanos;
+            if (timeoutMs >= 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    done();
+                    return null;
+                }
+                parkNanos = Math.min(remaining, parkNanos);
+            }
+            if (waitingThread == null) {
+                waitingThread = Thread.currentThread(); // announce (volatile write) - before checking the queue below
+            }
+            if (isDrained.getAsBoolean()) {
+                LockSupport.parkNanos(this, parkNanos);
+            } else {
+                ThreadUtil.onSpinWait(); // element is being enqueued - but not available yet
+            }
+        }
+    }
+
+    /**
+     * (Called by consumer after successful poll)
+     * Resets waiting state
+     */
+    public void done() {
+        if (waitingThread != null) {
+            waitingThread = null;
+        }
+    }
+
+    /**
+     * @return Is consumer currently parked (or about to park)?
+     */
+    public boolean isWaiting() {
+        return waitingThread != null;
+    }
+}
@@ -0,0 +1,81 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.thread;
+
+/**
+ * @author Max Reichardt
+ *
+ * Statistics of a spin lock.
+ *
+ * Counters are only updated by the thread that holds the lock - so they do not
+ * require atomic operations. Reading them from other threads provides
+ * (slightly outdated) estimates - good enough for monitoring.
+ */
+public class LockStatistics {
+
+    /** Number of times lock was acquired */
+    long acquisitions;
+
+    /** Number of times lock was acquired after at least one failed attempt */
+    long contendedAcquisitions;
+
+    /** Total number of failed attempts (= wait strategy iterations) */
+    long spinIterations;
+
+    /**
+     * @return Number of times lock was acquired
+     */
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * @return Number of times lock was acquired after at least one failed attempt
+     */
+    public long getContendedAcquisitions() {
+        return contendedAcquisitions;
+    }
+
+    /**
+     * @return Total number of failed attempts to acquire lock
+     */
+    public long getSpinIterations() {
+        return spinIterations;
+    }
+
+    /**
+     * Record acquisition of lock (called by lock holder)
+     *
+     * @param failedAttempts Number of failed attempts before lock was acquired
+     */
+    void recordAcquisition(int failedAttempts) {
+        acquisitions++;
+        if (failedAttempts > 0) {
+            contendedAcquisitions++;
+            spinIterations += failedAttempts;
+        }
+    }
+
+    public String toString() {
+        return "acquisitions: " + acquisitions + " contended: " + contendedAcquisitions + " spin iterations: " + spinIterations;
+    }
+}
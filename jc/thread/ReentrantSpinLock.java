@@ -21,27 +21,63 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.thread;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Max Reichardt
  *
  * Efficient, very simple lock variation.
  * Reentrant spin-lock
+ *
+ * What waiting threads do is determined by the wait strategy (default: pure busy spinning).
  */
 public class ReentrantSpinLock {
 
-    /** Stores uid of thread that currently has exclusive access - -1 means none */
-    private final AtomicLong accessor = new AtomicLong(-1);
+    /**
+     * Thread that currently has exclusive access - null means none
+     * (Thread reference instead of thread id: Thread.currentThread() is cheaper than looking up the id)
+     */
+    private final AtomicReference<Thread> accessor = new AtomicReference<Thread>(null);
 
     /** lock count */
     private int count = 1;
 
+    /** Strategy for waiting for lock */
+    private final SpinWaitStrategy waitStrategy;
+
+    /** Lock statistics - null if statistics are not recorded */
+    private final LockStatistics statistics;
+
+    public ReentrantSpinLock() {
+        this(SpinWaitStrategy.BUSY_SPIN, false);
+    }
+
+    /**
+     * @param waitStrategy Strategy for waiting for lock
+     * @param recordStatistics Record lock statistics?
+     */
+    public ReentrantSpinLock(SpinWaitStrategy waitStrategy, boolean recordStatistics) {
+        this.waitStrategy = waitStrategy;
+        statistics = recordStatistics ? new LockStatistics() : null;
+    }
+
     /**
      * Wait until exclusive access is gained
      */
     public void lock() {
-        while (!tryLock()) {}
+        Thread current = Thread.currentThread();
+        if (accessor.get() == current) {
+            count++;
+        } else {
+            int failedAttempts = 0;
+            while (!accessor.compareAndSet(null, current)) {
+                waitStrategy.idle(failedAttempts);
+                failedAttempts++;
+            }
+            if (statistics != null) {
+                statistics.recordAcquisition(failedAttempts);
+            }
+        }
     }
 
     /**
@@ -50,12 +86,16 @@ public class ReentrantSpinLock {
      * @return True: exclusive access gained - false: other thread currently has exclusive access
      */
     public boolean tryLock() {
-        long id = ThreadUtil.getCurrentThreadId();
-        if (accessor.get() == id) {
+        Thread current = Thread.currentThread();
+        if (accessor.get() == current) {
             count++;
             return true;
         } else {
-            return accessor.compareAndSet(-1, id);
+            boolean result = accessor.compareAndSet(null, current);
+            if (result && statistics != null) {
+                statistics.recordAcquisition(0);
+            }
+            return result;
         }
     }
 
@@ -63,11 +103,11 @@ public class ReentrantSpinLock {
      * Release exclusive access
      */
     public void release() {
-        assert(accessor.get() == ThreadUtil.getCurrentThreadId());
+        assert(accessor.get() == Thread.currentThread());
         if (count > 1) {
             count--;
         } else {
-            accessor.set(-1);
+            accessor.lazySet(null); // release store is sufficient for unlocking
         }
     }
 
@@ -75,6 +115,13 @@ public class ReentrantSpinLock {
      * @return Has current thread acquired lock?
      */
     public boolean hasLock() {
-        return accessor.get() == ThreadUtil.getCurrentThreadId();
+        return accessor.get() == Thread.currentThread();
+    }
+
+    /**
+     * @return Lock statistics - null if statistics are not recorded (reentrant acquisitions are not counted)
+     */
+    public LockStatistics getStatistics() {
+        return statistics;
     }
 }
@@ -21,24 +21,56 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.thread;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Max Reichardt
  *
  * Efficient, very simple lock variation.
  * Spin lock
+ *
+ * What waiting threads do is determined by the wait strategy (default: pure busy spinning).
  */
 public class SpinLock {
 
-    /** Stores uid of thread that currently has exclusive access - -1 means none */
-    private final AtomicLong mutex = new AtomicLong(-1);
+    /**
+     * Thread that currently has exclusive access - null means none
+     * (Thread reference instead of thread id: Thread.currentThread() is cheaper than looking up the id)
+     */
+    private final AtomicReference<Thread> mutex = new AtomicReference<Thread>(null);
+
+    /** Strategy for waiting for lock */
+    private final SpinWaitStrategy waitStrategy;
+
+    /** Lock statistics - null if statistics are not recorded */
+    private final LockStatistics statistics;
+
+    public SpinLock() {
+        this(SpinWaitStrategy.BUSY_SPIN, false);
+    }
+
+    /**
+     * @param waitStrategy Strategy for waiting for lock
+     * @param recordStatistics Record lock statistics?
+     */
+    public SpinLock(SpinWaitStrategy waitStrategy, boolean recordStatistics) {
+        this.waitStrategy = waitStrategy;
+        statistics = recordStatistics ? new LockStatistics() : null;
+    }
 
     /**
      * Wait until exclusive access is gained
      */
     public void lock() {
-        while (!tryLock()) {}
+        Thread current = Thread.currentThread();
+        int failedAttempts = 0;
+        while (!mutex.compareAndSet(null, current)) {
+            waitStrategy.idle(failedAttempts);
+            failedAttempts++;
+        }
+        if (statistics != null) {
+            statistics.recordAcquisition(failedAttempts);
+        }
     }
 
     /**
@@ -47,19 +79,30 @@ public class SpinLock {
      * @return True: exclusive access gained - false: other thread currently has exclusive access
      */
     public boolean tryLock() {
-        long id = ThreadUtil.getCurrentThreadId();
-        return mutex.compareAndSet(-1, id);
+        Thread current = Thread.currentThread();
+        boolean result = mutex.compareAndSet(null, current);
+        if (result && statistics != null) {
+            statistics.recordAcquisition(0);
+        }
+        return result;
     }
 
     /**
      * Release exclusive access
      */
     public void release() {
-        assert(mutex.get() == ThreadUtil.getCurrentThreadId());
-        mutex.set(-1);
+        assert(mutex.get() == Thread.currentThread());
+        mutex.lazySet(null); // release store is sufficient for unlocking
     }
 
     public boolean hasLock() {
-        return mutex.get() == ThreadUtil.getCurrentThreadId();
+        return mutex.get() == Thread.currentThread();
+    }
+
+    /**
+     * @return Lock statistics - null if statistics are not recorded
+     */
+    public LockStatistics getStatistics() {
+        return statistics;
     }
 }
@@ -0,0 +1,128 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.jc.thread;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Max Reichardt
+ *
+ * Strategy for waiting in spin locks (what to do after a failed attempt to acquire the lock).
+ *
+ * Pure spinning has the lowest latency when the lock holder is running on another core.
+ * If the lock holder was preempted, however, every waiter burns a full core until it is
+ * scheduled again. Yielding or parking avoids this at the cost of wake-up latency.
+ */
+public abstract class SpinWaitStrategy {
+
+    /** Pure busy spinning (like the original spin lock) */
+    public static final SpinWaitStrategy BUSY_SPIN = new BusySpin();
+
+    /** Busy spinning with processor hint (Thread.onSpinWait()) */
+    public static final SpinWaitStrategy SPIN_ON_SPIN_WAIT = new SpinThenYield(Integer.MAX_VALUE);
+
+    /** Spin 100 times - then yield */
+    public static final SpinWaitStrategy SPIN_THEN_YIELD = new SpinThenYield(100);
+
+    /** Spin 100 times - yield 10 times - then park with exponential backoff (max. 1ms) */
+    public static final SpinWaitStrategy SPIN_THEN_PARK = new SpinThenPark(100, 10, 1000000);
+
+    /**
+     * Called after each failed attempt to acquire lock
+     *
+     * @param iteration Number of failed attempts before this one (0 for first failed attempt)
+     */
+    public abstract void idle(int iteration);
+
+    /**
+     * Pure busy spinning
+     */
+    public static class BusySpin extends SpinWaitStrategy {
+
+        @Override
+        public void idle(int iteration) {}
+    }
+
+    /**
+     * Spin (with processor hint) - then yield
+     */
+    public static class SpinThenYield extends SpinWaitStrategy {
+
+        /** Number of spin iterations before yielding */
+        private final int spinIterations;
+
+        /**
+         * @param spinIterations Number of spin iterations before yielding
+         */
+        public SpinThenYield(int spinIterations) {
+            this.spinIterations = spinIterations;
+        }
+
+        @Override
+        public void idle(int iteration) {
+            if (iteration < spinIterations) {
+                ThreadUtil.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Spin (with processor hint) - then yield - then park for increasing periods of time.
+     * As the lock holder does not unpark waiters on release, park time is limited (maxParkNanos).
+     */
+    public static class SpinThenPark extends SpinWaitStrategy {
+
+        /** Minimum park time in ns */
+        private static final long MIN_PARK_NANOS = 1000;
+
+        /** Number of spin and yield iterations before parking */
+        private final int spinIterations, yieldIterations;
+
+        /** Maximum park time in ns */
+        private final long maxParkNanos;
+
+        /**
+         * @param spinIterations Number of spin iterations before yielding
+         * @param yieldIterations Number of yield iterations before parking
+         * @param maxParkNanos Maximum park time in ns
+         */
+        public SpinThenPark(int spinIterations, int yieldIterations, long maxParkNanos) {
+            this.spinIterations = spinIterations;
+            this.yieldIterations = yieldIterations;
+            this.maxParkNanos = Math.max(MIN_PARK_NANOS, maxParkNanos);
+        }
+
+        @Override
+        public void idle(int iteration) {
+            if (iteration < spinIterations) {
+                ThreadUtil.onSpinWait();
+            } else if (iteration - spinIterations < yieldIterations) {
+                Thread.yield();
+            } else {
+                int parkRound = Math.min(20, iteration - spinIterations - yieldIterations);
+                LockSupport.parkNanos(Math.min(maxParkNanos, MIN_PARK_NANOS << parkRound));
+            }
+        }
+    }
+}
@@ -21,6 +21,9 @@
 //----------------------------------------------------------------------
 package org.rrlib.finroc_core_utils.jc.thread;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 
 /**
  * @author Max Reichardt
@@ -32,6 +35,15 @@ package org.rrlib.finroc_core_utils.jc.thread;
  */
 public class ThreadUtil {
 
+    /** Handle to Thread.onSpinWait() - null if not available (Java < 9) */
+    private static final MethodHandle onSpinWaitHandle = findOnSpinWait();
+
+    /** Handle to VarHandle.acquireFence() - null if not available (Java < 9) */
+    private static final MethodHandle acquireFenceHandle = findAcquireFence();
+
+    /** Volatile variable that is read as acquire fence if VarHandle.acquireFence() is not available */
+    private static volatile int fenceDummy;
+
     /**
      * Get Current thread id
      * (In C++ much faster than using Thread.currentThread.getId();
@@ -43,6 +55,61 @@ public class ThreadUtil {
     }
 
 
+    /**
+     * Hint to the processor that the current thread is busy-waiting
+     * (calls Thread.onSpinWait() if available - PAUSE instruction on x86 - does nothing otherwise)
+     */
+    public static void onSpinWait() {
+        if (onSpinWaitHandle != null) {
+            try {
+                onSpinWaitHandle.invokeExact();
+            } catch (Throwable t) {
+                // does not throw
+            }
+        }
+    }
+
+    /**
+     * @return Handle to Thread.onSpinWait() - null if not available
+     */
+    private static MethodHandle findOnSpinWait() {
+        try {
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Acquire fence: Loads after the fence are not reordered before loads before it.
+     * Meant for spin loops that wait for a non-volatile field to be set by another thread:
+     * Calling this in every iteration makes sure the field is actually read again
+     * (calls VarHandle.acquireFence() if available - reads a volatile variable otherwise)
+     */
+    public static void acquireFence() {
+        if (acquireFenceHandle != null) {
+            try {
+                acquireFenceHandle.invokeExact();
+            } catch (Throwable t) {
+                // does not throw
+            }
+        } else {
+            @SuppressWarnings("unused")
+            int dummy = fenceDummy;
+        }
+    }
+
+    /**
+     * @return Handle to VarHandle.acquireFence() - null if not available
+     */
+    private static MethodHandle findAcquireFence() {
+        try {
+            return MethodHandles.lookup().findStatic(Class.forName("java.lang.invoke.VarHandle"), "acquireFence", MethodType.methodType(void.class));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     /**
      * Makes a thread a real-time thread.
      * This currently only works in C++ with a real-time kernel.
@@ -0,0 +1,201 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.tests;
+
+import static org.rrlib.finroc_core_utils.tests.TestUtil.check;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.rrlib.finroc_core_utils.jc.container.AbstractReusable;
+import org.rrlib.finroc_core_utils.jc.container.AllocationRegister;
+import org.rrlib.finroc_core_utils.jc.container.BoundedQElementContainer;
+import org.rrlib.finroc_core_utils.jc.container.ReusablesPool;
+
+/**
+ * @author Max Reichardt
+ *
+ * Tests the lock-free register of indexed reusables in AllocationRegister:
+ * Several threads concurrently register and unregister reusables (so that freed slots are reused),
+ * while another thread looks up indices - including indices in segments that have not been allocated yet.
+ * Furthermore, registration of a batch of reusables with contiguous indices is tested (also when warming up pools).
+ */
+public class AllocationRegisterTest {
+
+    /** Number of threads that register and unregister reusables */
+    private static final int THREADS = 4;
+
+    /** Number of rounds per thread */
+    private static final int ROUNDS = 200;
+
+    /** Number of reusables registered per round and thread */
+    private static final int BATCH_SIZE = 1000;
+
+    /** Reusables that are currently registered - by index */
+    private static final ConcurrentHashMap<Integer, Indexed> registered = new ConcurrentHashMap<Integer, Indexed>();
+
+    public static void main(String[] args) throws Exception {
+        AllocationRegister.getInstance();
+        check(AllocationRegister.getByIndex(Integer.MAX_VALUE) == null, "index in unallocated segment");
+        TestUtil.runTests(
+            AllocationRegisterTest::testBatchRegistration,
+            AllocationRegisterTest::testPoolPreallocation,
+            AllocationRegisterTest::testConcurrentRegistration);
+    }
+
+    /**
+     * Register a batch of reusables - they should get a contiguous block of indices
+     */
+    private static void testBatchRegistration() {
+        Unindexed[] batch = new Unindexed[100];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new Unindexed();
+            check(batch[i].getRegisterIndex() < 0, "reusable registered for index before batch registration");
+        }
+        AllocationRegister.getInstance().registerForIndex(batch);
+        for (int i = 0; i < batch.length; i++) {
+            check(batch[i].getRegisterIndex() == batch[0].getRegisterIndex() + i, "indices of batch not contiguous");
+            check(AllocationRegister.getByIndex(batch[i].getRegisterIndex()) == batch[i], "lookup of batch element " + i + " returned wrong object");
+        }
+        for (Unindexed r : batch) {
+            r.delete();
+            check(AllocationRegister.getByIndex(r.getRegisterIndex()) == null, "lookup of deleted reusable " + r.getRegisterIndex() + " did not return null");
+        }
+    }
+
+    /**
+     * Warm up pool with bounded queue containers that are registered en bloc - and check that registering twice fails
+     */
+    private static void testPoolPreallocation() {
+        BoundedQElementContainer.staticInit();
+        ReusablesPool<Container> pool = new ReusablesPool<Container>();
+        check(pool.preallocate(50, () -> new Container(false), true) == 50, "not all containers were attached");
+        Container[] containers = new Container[49]; // pool never returns its last unused object
+        for (int i = 0; i < containers.length; i++) {
+            containers[i] = pool.getUnused();
+            check(containers[i] != null, "pool returned fewer containers than were preallocated");
+            check(AllocationRegister.getByIndex(containers[i].getRegisterIndex()) == containers[i], "lookup of preallocated container returned wrong object");
+        }
+        int minIndex = Integer.MAX_VALUE, maxIndex = 0;
+        for (Container c : containers) {
+            minIndex = Math.min(minIndex, c.getRegisterIndex());
+            maxIndex = Math.max(maxIndex, c.getRegisterIndex());
+        }
+        check(maxIndex - minIndex <= containers.length, "indices of preallocated containers not contiguous");
+
+        Unindexed unregistered = new Unindexed();
+        try {
+            AllocationRegister.getInstance().registerForIndex(new AbstractReusable[] {unregistered, containers[0]});
+            check(false, "registering an already registered reusable did not fail");
+        } catch (IllegalStateException e) {
+            check(unregistered.getRegisterIndex() < 0, "reusable was registered although batch registration failed");
+        }
+        unregistered.delete();
+    }
+
+    /**
+     * Register and unregister reusables concurrently - and check that indices are unique and lookups return the right objects
+     */
+    private static void testConcurrentRegistration() throws Exception {
+        final AtomicInteger running = new AtomicInteger(THREADS);
+        TestUtil.runConcurrently(THREADS + 1, (int thread) -> {
+            if (thread == THREADS) {
+
+                // last thread looks up indices (most of them are not (yet) registered)
+                int index = 1;
+                while (running.get() > 0) {
+                    AbstractReusable r = AllocationRegister.getByIndex(index);
+                    check(r == null || r.getRegisterIndex() == index, "lookup of index " + index + " returned object with index " + (r == null ? -1 : r.getRegisterIndex()));
+                    index = (index * 31 + 7) & 0x7FFFFFFF;
+                    if (index == 0) {
+                        index = 1;
+                    }
+                }
+                return;
+            }
+
+            try {
+                Indexed[] batch = new Indexed[BATCH_SIZE];
+                for (int round = 0; round < ROUNDS; round++) {
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        batch[i] = new Indexed();
+                        check(registered.putIfAbsent(batch[i].getRegisterIndex(), batch[i]) == null, "index " + batch[i].getRegisterIndex() + " assigned twice");
+                    }
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        check(AllocationRegister.getByIndex(batch[i].getRegisterIndex()) == batch[i], "lookup of index " + batch[i].getRegisterIndex() + " returned wrong object");
+                    }
+
+                    // unregister most of them again (so that slots are reused)
+                    for (int i = (round % 2); i < BATCH_SIZE; i++) {
+                        registered.remove(batch[i].getRegisterIndex());
+                        batch[i].delete();
+                    }
+                }
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+
+        for (Indexed r : registered.values()) {
+            check(AllocationRegister.getByIndex(r.getRegisterIndex()) == r, "lookup of index " + r.getRegisterIndex() + " returned wrong object after test");
+        }
+    }
+
+    /**
+     * Reusable that is registered for an index on construction
+     */
+    private static class Indexed extends AbstractReusable {
+
+        private Indexed() {
+            registerForIndex();
+        }
+    }
+
+    /**
+     * Bounded queue container
+     */
+    private static class Container extends BoundedQElementContainer {
+
+        private Container(boolean registerForIndex) {
+            super(registerForIndex);
+        }
+
+        @Override
+        protected void recycle(boolean recycleContent) {
+            super.recycle();
+        }
+
+        @Override
+        protected void recycleContent() {
+        }
+
+        @Override
+        public void recycleContent(Object content) {
+        }
+    }
+
+    /**
+     * Reusable that does not register for an index itself
+     */
+    private static class Unindexed extends AbstractReusable {
+    }
+}
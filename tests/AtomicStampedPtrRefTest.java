@@ -0,0 +1,105 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.tests;
+
+import static org.rrlib.finroc_core_utils.tests.TestUtil.check;
+
+import org.rrlib.finroc_core_utils.jc.container.AbstractReusable;
+import org.rrlib.finroc_core_utils.jc.stampedptr.AtomicStampedPtrRef;
+
+/**
+ * @author Max Reichardt
+ *
+ * Tests AtomicStampedPtrRef - in particular that getPointer() returns the correct pointer
+ * for outdated raw values (which are resolved via AllocationRegister instead of the current holder).
+ */
+public class AtomicStampedPtrRefTest {
+
+    /** Number of threads in concurrent test */
+    private static final int THREADS = 4;
+
+    /** Number of operations per thread in concurrent test */
+    private static final int OPERATIONS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        TestUtil.runTests(
+            AtomicStampedPtrRefTest::testStaleRaw,
+            AtomicStampedPtrRefTest::testConcurrentStaleRaw);
+    }
+
+    /**
+     * Raw values that are no longer current still resolve to the pointer they were created with
+     */
+    private static void testStaleRaw() {
+        Element a = new Element(), b = new Element();
+        AtomicStampedPtrRef<Element> ptr = new AtomicStampedPtrRef<Element>();
+        ptr.set(a, 1);
+        long rawA = ptr.getRaw();
+        check(ptr.getPointer(rawA) == a && ptr.getStamp(rawA) == 1, "current raw value");
+
+        check(ptr.compareAndSet(rawA, b, 2), "compareAndSet with current raw value failed");
+        long rawB = ptr.getRaw();
+        check(ptr.getPointer() == b && ptr.getStamp() == 2, "pointer/stamp after compareAndSet");
+        check(ptr.getPointer(rawA) == a && ptr.getStamp(rawA) == 1, "outdated raw value returned wrong pointer/stamp");
+        check(ptr.getPointer(rawB) == b, "current raw value after compareAndSet");
+        check(!ptr.compareAndSet(rawA, a, 3), "compareAndSet with outdated raw value succeeded");
+
+        // raw set operation (pointer is looked up in register)
+        ptr.set(rawA);
+        check(ptr.getPointer() == a && ptr.getStamp() == 1, "pointer/stamp after raw set");
+        check(ptr.getPointer(rawB) == b, "outdated raw value after raw set");
+        check(ptr.compareAndSet(rawA, rawB), "raw compareAndSet failed");
+        check(ptr.getPointer() == b && ptr.getStamp() == 2, "pointer/stamp after raw compareAndSet");
+    }
+
+    /**
+     * Several threads replace the pointer concurrently - raw values read by any thread (typically outdated soon) must resolve to the pointer they contain
+     */
+    private static void testConcurrentStaleRaw() throws Exception {
+        final Element[] elements = new Element[16];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new Element();
+        }
+        final AtomicStampedPtrRef<Element> ptr = new AtomicStampedPtrRef<Element>();
+        ptr.set(elements[0], 0);
+        TestUtil.runConcurrently(THREADS, (int thread) -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                long raw = ptr.getRaw();
+                Element e = ptr.getPointer(raw);
+                check(e != null && e.getRegisterIndex() == (int)raw, "raw value resolved to wrong pointer");
+                Element next = elements[(i + thread) % elements.length];
+                ptr.compareAndSet(raw, next, ptr.getStamp(raw) + 1);
+            }
+        });
+        check(ptr.getPointer(ptr.getRaw()) == ptr.getPointer(), "current raw value after concurrent test");
+    }
+
+    /**
+     * Reusable that is registered for an index (required by stamped pointers)
+     */
+    private static class Element extends AbstractReusable {
+
+        private Element() {
+            registerForIndex();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.tests;
+
+import static org.rrlib.finroc_core_utils.tests.TestUtil.check;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.rrlib.finroc_core_utils.jc.stream.BufferChunk;
+import org.rrlib.finroc_core_utils.jc.stream.ChunkedBuffer;
+
+/**
+ * @author Max Reichardt
+ *
+ * Tests multi-producer ChunkedBuffer.append():
+ * Several threads append records of varying size (including empty ones), while another thread
+ * consumes buffer contents with transferTo(). All records must arrive intact and in per-thread order -
+ * with constant and growing chunk size, on and off the heap.
+ */
+public class ChunkedBufferAppendTest {
+
+    /** Number of appending threads */
+    private static final int WRITERS = 8;
+
+    /** Number of records per writer */
+    private static final int RECORDS_PER_WRITER = 20000;
+
+    /** Size of record header: writer (1 byte), sequence number (4 bytes), payload length (2 bytes) */
+    private static final int HEADER_SIZE = 7;
+
+    /** Maximum payload size */
+    private static final int MAX_PAYLOAD = 300;
+
+    public static void main(String[] args) throws Exception {
+        ChunkedBuffer.staticInit();
+        TestUtil.runTests(
+            () -> testConcurrentAppend(new ChunkedBuffer(false, false)),
+            () -> testConcurrentAppend(new ChunkedBuffer(false, false, BufferChunk.MIN_CHUNK_SIZE, 16 * BufferChunk.MIN_CHUNK_SIZE)),
+            () -> testConcurrentAppend(new ChunkedBuffer(false, true)),
+            ChunkedBufferAppendTest::testEmptyRecord);
+    }
+
+    /**
+     * Empty records do not change buffer contents (and do not block further records)
+     */
+    private static void testEmptyRecord() {
+        ChunkedBuffer buffer = new ChunkedBuffer();
+        buffer.append(new byte[0], 0, 0);
+        buffer.append(new byte[] {1, 2, 3}, 0, 3);
+        buffer.append(new byte[0], 0, 0);
+        check(buffer.getCurrentSize() == 3, "buffer size after appending empty records: " + buffer.getCurrentSize());
+        buffer.delete();
+    }
+
+    /**
+     * Several threads append records concurrently - reader consumes them with transferTo()
+     *
+     * @param buffer Buffer to test
+     */
+    private static void testConcurrentAppend(final ChunkedBuffer buffer) throws Exception {
+        final CollectingChannel channel = new CollectingChannel();
+        final AtomicInteger running = new AtomicInteger(WRITERS);
+        TestUtil.runConcurrently(WRITERS + 1, (int thread) -> {
+            if (thread == WRITERS) {
+
+                // last thread is the reader
+                while (running.get() > 0) {
+                    if (buffer.transferTo(channel) == 0) {
+                        Thread.yield();
+                    }
+                }
+                buffer.transferTo(channel);
+                return;
+            }
+
+            try {
+                byte[] record = new byte[HEADER_SIZE + MAX_PAYLOAD];
+                for (int i = 0; i < RECORDS_PER_WRITER; i++) {
+                    int payload = (i * 31 + thread * 17) % (MAX_PAYLOAD + 1);
+                    ByteBuffer bb = ByteBuffer.wrap(record);
+                    bb.put((byte)thread).putInt(i).putShort((short)payload);
+                    for (int j = 0; j < payload; j++) {
+                        bb.put(payloadByte(thread, i, j));
+                    }
+                    buffer.append(record, 0, HEADER_SIZE + payload);
+                    if (i % 100 == 0) {
+                        buffer.append(record, 0, 0);
+                    }
+                }
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+        check(buffer.getCurrentSize() == 0, "buffer not empty after transferring all contents");
+        buffer.delete();
+
+        // check records
+        ByteBuffer contents = ByteBuffer.wrap(channel.toByteArray());
+        int[] nextExpected = new int[WRITERS];
+        while (contents.hasRemaining()) {
+            int writer = contents.get();
+            int sequence = contents.getInt();
+            int payload = contents.getShort();
+            check(writer >= 0 && writer < WRITERS, "invalid writer " + writer);
+            check(sequence == nextExpected[writer], "writer " + writer + ": expected record " + nextExpected[writer] + ", got " + sequence);
+            for (int j = 0; j < payload; j++) {
+                check(contents.get() == payloadByte(writer, sequence, j), "corrupted payload in record " + sequence + " of writer " + writer);
+            }
+            nextExpected[writer]++;
+        }
+        for (int i = 0; i < WRITERS; i++) {
+            check(nextExpected[i] == RECORDS_PER_WRITER, "writer " + i + ": only " + nextExpected[i] + " records received");
+        }
+    }
+
+    /**
+     * @return Payload byte at specified position in specified record
+     */
+    private static byte payloadByte(int writer, int sequence, int index) {
+        return (byte)(writer * 7 + sequence * 13 + index);
+    }
+
+    /**
+     * Channel that collects all written data in memory
+     */
+    private static class CollectingChannel extends ByteArrayOutputStream implements GatheringByteChannel {
+
+        @Override
+        public int write(ByteBuffer src) {
+            int len = src.remaining();
+            byte[] tmp = new byte[len];
+            src.get(tmp);
+            write(tmp, 0, len);
+            return len;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+}
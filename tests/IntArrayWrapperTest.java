@@ -0,0 +1,266 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.tests;
+
+import static org.rrlib.finroc_core_utils.tests.TestUtil.check;
+
+import java.util.Arrays;
+
+import org.rrlib.finroc_core_utils.jc.IntArrayWrapper;
+import org.rrlib.serialization.BinaryInputStream;
+import org.rrlib.serialization.BinaryOutputStream;
+import org.rrlib.serialization.FixedBuffer;
+import org.rrlib.serialization.MemoryBuffer;
+
+/**
+ * @author Max Reichardt
+ *
+ * Tests serialization of IntArrayWrapper:
+ * Round trips with all encodings (also with sizes around the block size used internally),
+ * binary compatibility of ENCODING_FIXED with the per-element layout - and rejection of invalid data.
+ */
+public class IntArrayWrapperTest {
+
+    /** Array sizes to test with ENCODING_FIXED (256 elements fill one 1024 byte block) */
+    private static final int[] FIXED_SIZES = {0, 1, 255, 256, 257, 511, 512, 513, 1000};
+
+    public static void main(String[] args) throws Exception {
+        TestUtil.runTests(
+            IntArrayWrapperTest::testFixedLayout,
+            IntArrayWrapperTest::testCompactRoundTrip,
+            IntArrayWrapperTest::testBlockBoundaries,
+            IntArrayWrapperTest::testRejectInvalidData);
+    }
+
+    /**
+     * ENCODING_FIXED produces the same bytes as writing size and elements with writeInt() one by one
+     */
+    private static void testFixedLayout() {
+        for (int size : FIXED_SIZES) {
+            IntArrayWrapper array = createArray(size, IntArrayWrapper.ENCODING_FIXED);
+            for (int i = 0; i < size; i++) {
+                array.set(i, i * 0x01020304 - 7);
+            }
+
+            MemoryBuffer buffer = new MemoryBuffer();
+            BinaryOutputStream os = new BinaryOutputStream(buffer);
+            os.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                os.writeInt(array.get(i));
+            }
+            os.close();
+
+            byte[] serialized = serialize(array);
+            check(Arrays.equals(serialized, toArray(buffer)), "ENCODING_FIXED layout differs for " + size + " elements");
+            checkRoundTrip(array);
+        }
+    }
+
+    /**
+     * Round trips with compact encodings - including negative values and differences that overflow
+     */
+    private static void testCompactRoundTrip() {
+        int[][] contents = {
+            {},
+            {0},
+            {-1, 1, -64, 63, -65, 64, 1000000, -1000000},
+            {Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, 0, Integer.MAX_VALUE, -1, Integer.MIN_VALUE},
+            {Integer.MAX_VALUE, Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1, Integer.MIN_VALUE}
+        };
+        for (byte encoding : new byte[] {IntArrayWrapper.ENCODING_VARINT, IntArrayWrapper.ENCODING_DELTA}) {
+            for (int[] values : contents) {
+                IntArrayWrapper array = createArray(values.length, encoding);
+                array.copyFrom(values, 0, values.length);
+                checkRoundTrip(array);
+            }
+
+            // sorted ids (typical use case of ENCODING_DELTA)
+            IntArrayWrapper array = createArray(3000, encoding);
+            for (int i = 0; i < array.size(); i++) {
+                array.set(i, 100000 + 3 * i);
+            }
+            checkRoundTrip(array);
+        }
+    }
+
+    /**
+     * Compact encodings with encoded sizes around the 1024 byte block boundary
+     */
+    private static void testBlockBoundaries() {
+        for (byte encoding : new byte[] {IntArrayWrapper.ENCODING_VARINT, IntArrayWrapper.ENCODING_DELTA}) {
+
+            // 1 byte per element
+            for (int size = 1015; size <= 1030; size++) {
+                IntArrayWrapper array = createArray(size, encoding);
+                for (int i = 0; i < size; i++) {
+                    array.set(i, encoding == IntArrayWrapper.ENCODING_DELTA ? i * 5 : (i % 64) - 32);
+                }
+                checkRoundTrip(array);
+            }
+
+            // 5 bytes per element (varints may not be split across blocks when writing)
+            for (int size = 200; size <= 210; size++) {
+                IntArrayWrapper array = createArray(size, encoding);
+                for (int i = 0; i < size; i++) {
+                    array.set(i, (i % 2 == 0) ? Integer.MIN_VALUE : Integer.MAX_VALUE);
+                }
+                checkRoundTrip(array);
+            }
+
+            // mixed varint sizes, so that varints are split across blocks when reading
+            for (int size = 400; size <= 420; size++) {
+                IntArrayWrapper array = createArray(size, encoding);
+                for (int i = 0; i < size; i++) {
+                    array.set(i, (i % 3 == 0) ? i : -i * 100000);
+                }
+                checkRoundTrip(array);
+            }
+        }
+    }
+
+    /**
+     * Invalid serialized data is rejected with an exception
+     */
+    private static void testRejectInvalidData() {
+        byte[] varint = serialize(createArray(4, IntArrayWrapper.ENCODING_VARINT));
+
+        checkRejected("invalid encoding", 4, ints(-3, 0, 0));
+        checkRejected("invalid encoding", 4, ints(Integer.MIN_VALUE, 0, 0));
+        checkRejected("negative number of encoded bytes", 4, ints(-IntArrayWrapper.ENCODING_VARINT, 2, -1));
+        checkRejected("too many encoded bytes", 4, ints(-IntArrayWrapper.ENCODING_VARINT, 2, 11));
+        checkRejected("truncated ENCODING_FIXED data", 4, ints(3, 1, 2));
+        checkRejected("truncated stream", 4, Arrays.copyOf(varint, varint.length - 1));
+        checkRejected("encoded data ends before last element", 4, concat(ints(-IntArrayWrapper.ENCODING_VARINT, 2, 1), new byte[] {0}));
+        checkRejected("trailing bytes", 4, concat(ints(-IntArrayWrapper.ENCODING_VARINT, 1, 2), new byte[] {0, 0}));
+        checkRejected("trailing bytes", 4, concat(ints(-IntArrayWrapper.ENCODING_DELTA, 1, 5), new byte[] {2, 0, 0, 0, 0}));
+        checkRejected("over-long varint", 4, concat(ints(-IntArrayWrapper.ENCODING_VARINT, 1, 5), new byte[] {-128, -128, -128, -128, -128}));
+        checkRejected("over-long varint", 4, concat(ints(-IntArrayWrapper.ENCODING_DELTA, 2, 10), new byte[] {-128, -128, -128, -128, -128, -128, 0, 0, 0, 0}));
+        checkRejected("ENCODING_FIXED data exceeding capacity", 3, serialize(createArray(4, IntArrayWrapper.ENCODING_FIXED)));
+        checkRejected("compact data exceeding capacity", 3, varint);
+        checkRejected("negative size", 4, ints(-IntArrayWrapper.ENCODING_DELTA, -1, 0));
+    }
+
+    /**
+     * @param size Size of array
+     * @param encoding Encoding to use for serialization
+     * @return Array with specified size and encoding (filled with zeros)
+     */
+    private static IntArrayWrapper createArray(int size, byte encoding) {
+        IntArrayWrapper array = new IntArrayWrapper(size);
+        array.setEncoding(encoding);
+        return array;
+    }
+
+    /**
+     * Serializes and deserializes array - and checks that contents are equal
+     *
+     * @param array Array to check
+     */
+    private static void checkRoundTrip(IntArrayWrapper array) {
+        byte[] serialized = serialize(array);
+        IntArrayWrapper result = deserialize(serialized, array.size() + 1);
+        String description = array.size() + " elements with encoding " + array.getEncoding();
+        check(result.size() == array.size(), "size differs after round trip of " + description);
+        for (int i = 0; i < array.size(); i++) {
+            check(result.get(i) == array.get(i), "element " + i + " differs after round trip of " + description);
+        }
+    }
+
+    /**
+     * @param description Description of invalid data (for message)
+     * @param capacity Capacity of array to deserialize to
+     * @param data Invalid serialized data
+     */
+    private static void checkRejected(String description, int capacity, byte[] data) {
+        try {
+            deserialize(data, capacity);
+        } catch (RuntimeException e) {
+            return;
+        }
+        throw new RuntimeException("Test failed: " + description + " was not rejected");
+    }
+
+    /**
+     * @param array Array to serialize
+     * @return Serialized data
+     */
+    private static byte[] serialize(IntArrayWrapper array) {
+        MemoryBuffer buffer = new MemoryBuffer();
+        BinaryOutputStream os = new BinaryOutputStream(buffer);
+        array.serialize(os);
+        os.close();
+        return toArray(buffer);
+    }
+
+    /**
+     * @param data Serialized data
+     * @param capacity Capacity of array to deserialize to
+     * @return Deserialized array
+     */
+    private static IntArrayWrapper deserialize(byte[] data, int capacity) {
+        MemoryBuffer buffer = new MemoryBuffer();
+        BinaryOutputStream os = new BinaryOutputStream(buffer);
+        os.write(data, 0, data.length);
+        os.close();
+        IntArrayWrapper result = new IntArrayWrapper(capacity);
+        BinaryInputStream is = new BinaryInputStream(buffer);
+        result.deserialize(is);
+        is.close();
+        return result;
+    }
+
+    /**
+     * @param buffer Memory buffer
+     * @return Copy of buffer contents
+     */
+    private static byte[] toArray(MemoryBuffer buffer) {
+        byte[] result = new byte[buffer.getSize()];
+        FixedBuffer contents = buffer.getBuffer();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = contents.getByte(i);
+        }
+        return result;
+    }
+
+    /**
+     * @param values Integers
+     * @return Integers as they are written by BinaryOutputStream.writeInt()
+     */
+    private static byte[] ints(int... values) {
+        MemoryBuffer buffer = new MemoryBuffer();
+        BinaryOutputStream os = new BinaryOutputStream(buffer);
+        for (int value : values) {
+            os.writeInt(value);
+        }
+        os.close();
+        return toArray(buffer);
+    }
+
+    /**
+     * @return Concatenation of a and b
+     */
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.tests;
+
+import static org.rrlib.finroc_core_utils.tests.TestUtil.check;
+
+import java.io.ByteArrayOutputStream;
+
+import org.rrlib.finroc_core_utils.jc.stream.LargeIntermediateStreamBuffer;
+import org.rrlib.serialization.BinaryInputStream;
+import org.rrlib.serialization.BinaryOutputStream;
+import org.rrlib.serialization.BufferInfo;
+import org.rrlib.serialization.FixedBuffer;
+import org.rrlib.serialization.MemoryBuffer;
+import org.rrlib.serialization.Sink;
+
+/**
+ * @author Max Reichardt
+ *
+ * Tests spilling of LargeIntermediateStreamBuffer:
+ * Skip offsets are written across the spill threshold (and across growth of the spill file mapping) -
+ * and the contents that arrive at the sink are read back and checked.
+ */
+public class LargeIntermediateStreamBufferTest {
+
+    /** Spill threshold used in tests */
+    private static final int SPILL_THRESHOLD = 64 * 1024;
+
+    /** Payload sizes between skip offset and its target: below threshold, across threshold, across growth of spill file mapping */
+    private static final int[] PAYLOAD_SIZES = {
+        1000, SPILL_THRESHOLD - 8, SPILL_THRESHOLD + 1, 3 * SPILL_THRESHOLD + 17, LargeIntermediateStreamBuffer.MIN_SPILL_MAPPING_SIZE + 12345
+    };
+
+    /** Size of blocks that payload is written in */
+    private static final int BLOCK_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        TestUtil.runTests(
+            () -> testSkipOffsets(false),
+            () -> testSkipOffsets(true));
+    }
+
+    /**
+     * Writes records with skip offsets to intermediate buffer with spilling enabled - and checks what arrives at sink
+     *
+     * @param flushBetweenRecords Flush stream after every record? (otherwise, all records are written in one go)
+     */
+    private static void testSkipOffsets(boolean flushBetweenRecords) {
+        CollectingSink sink = new CollectingSink();
+        LargeIntermediateStreamBuffer buffer = new LargeIntermediateStreamBuffer(sink);
+        buffer.setSpillThreshold(SPILL_THRESHOLD);
+        BinaryOutputStream os = new BinaryOutputStream(buffer);
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int record = 0; record < PAYLOAD_SIZES.length; record++) {
+            os.writeInt(record);
+            os.writeSkipOffsetPlaceholder();
+            for (int written = 0; written < PAYLOAD_SIZES[record]; written += BLOCK_SIZE) {
+                int len = Math.min(BLOCK_SIZE, PAYLOAD_SIZES[record] - written);
+                for (int i = 0; i < len; i++) {
+                    block[i] = payloadByte(record, written + i);
+                }
+                os.write(block, 0, len);
+            }
+            os.skipTargetHere();
+            os.writeInt(~record);
+            if (flushBetweenRecords) {
+                os.flush();
+            }
+        }
+        os.close();
+
+        // read contents that arrived at sink
+        MemoryBuffer contents = new MemoryBuffer();
+        BinaryOutputStream copy = new BinaryOutputStream(contents);
+        copy.write(sink.toByteArray(), 0, sink.size());
+        copy.close();
+        BinaryInputStream is = new BinaryInputStream(contents);
+        for (int record = 0; record < PAYLOAD_SIZES.length; record++) {
+            check(is.readInt() == record, "record " + record + " not found");
+            int skipOffset = is.readInt();
+            check(skipOffset == PAYLOAD_SIZES[record], "record " + record + ": skip offset is " + skipOffset + " instead of " + PAYLOAD_SIZES[record]);
+            byte[] payload = new byte[skipOffset];
+            is.readFully(payload, 0, skipOffset);
+            for (int i = 0; i < skipOffset; i++) {
+                check(payload[i] == payloadByte(record, i), "record " + record + ": corrupted payload at " + i);
+            }
+            check(is.readInt() == ~record, "record " + record + ": skip offset does not point to end of record");
+        }
+        is.close();
+        check(contents.getSize() == sink.size(), "sink contains unexpected data");
+    }
+
+    /**
+     * @return Payload byte at specified position in specified record
+     */
+    private static byte payloadByte(int record, int index) {
+        return (byte)(record * 7 + index + (index >> 10));
+    }
+
+    /**
+     * Sink that collects all directly written data in memory
+     */
+    private static class CollectingSink extends ByteArrayOutputStream implements Sink {
+
+        @Override
+        public void reset(BinaryOutputStream outputStreamBuffer, BufferInfo buffer) {
+            reset();
+        }
+
+        @Override
+        public boolean write(BinaryOutputStream outputStreamBuffer, BufferInfo buffer, int writeSizeHint) {
+            throw new RuntimeException("shouldn't be called");
+        }
+
+        @Override
+        public void close(BinaryOutputStream outputStreamBuffer, BufferInfo buffer) {}
+
+        @Override
+        public boolean directWriteSupport() {
+            return true;
+        }
+
+        @Override
+        public void directWrite(BinaryOutputStream outputStreamBuffer, FixedBuffer buffer, int offset, int len) {
+            byte[] tmp = new byte[len];
+            buffer.get(offset, tmp, 0, len);
+            write(tmp, 0, len);
+        }
+
+        @Override
+        public void flush(BinaryOutputStream outputStreamBuffer, BufferInfo buffer) {}
+    }
+}
@@ -0,0 +1,121 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.tests;
+
+/**
+ * @author Max Reichardt
+ *
+ * Shared helpers for the test programs in this package:
+ * Running test cases, checking conditions and running test code in several threads.
+ */
+public class TestUtil {
+
+    /**
+     * Test case (or code executed by a test thread)
+     */
+    public interface TestCase {
+
+        /**
+         * @throws Exception Any exception makes the test fail
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * Code executed by each thread in runConcurrently()
+     */
+    public interface ThreadBody {
+
+        /**
+         * @param threadIndex Index of thread (0 to number of threads - 1)
+         * @throws Exception Any exception makes the test fail
+         */
+        void run(int threadIndex) throws Exception;
+    }
+
+    /**
+     * Runs test cases one after the other and prints "OK" if all of them succeed.
+     * (Meant to be called from main() of test programs - exceptions are passed on, so that the program fails)
+     *
+     * @param tests Test cases to run
+     */
+    public static void runTests(TestCase... tests) throws Exception {
+        for (TestCase test : tests) {
+            test.run();
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * @param condition Condition to check
+     * @param message Message of exception if condition does not hold
+     */
+    public static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new RuntimeException("Test failed: " + message);
+        }
+    }
+
+    /**
+     * Runs code in several threads and waits until all of them have terminated.
+     * If code in any thread throws an exception, the first one is passed on.
+     *
+     * @param threadCount Number of threads
+     * @param body Code to execute in each thread
+     */
+    public static void runConcurrently(int threadCount, final ThreadBody body) throws Exception {
+        final Throwable[] error = new Throwable[1];
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int threadIndex = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        body.run(threadIndex);
+                    } catch (Throwable e) {
+                        synchronized (error) {
+                            if (error[0] == null) {
+                                error[0] = e;
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        rethrow(error[0]);
+    }
+
+    /**
+     * @param error Exception that occured in a test thread - null if there was none
+     */
+    private static void rethrow(Throwable error) throws Exception {
+        if (error instanceof Exception) {
+            throw (Exception)error;
+        } else if (error instanceof Error) {
+            throw (Error)error;
+        }
+    }
+}
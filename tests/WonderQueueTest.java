@@ -0,0 +1,173 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.tests;
+
+import static org.rrlib.finroc_core_utils.tests.TestUtil.check;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
+import org.rrlib.finroc_core_utils.jc.container.Queueable;
+import org.rrlib.finroc_core_utils.jc.container.WonderQueue;
+
+/**
+ * @author Max Reichardt
+ *
+ * Tests non-blocking concurrent dequeueing of WonderQueue:
+ * Several threads dequeue elements and immediately enqueue them again (as pools do with recycled elements).
+ * No element may be dequeued by two threads at the same time - and no element may get lost.
+ * Furthermore, batch dequeueing by a single reader with several concurrent producers is tested.
+ */
+public class WonderQueueTest {
+
+    /** Number of threads that dequeue and re-enqueue elements */
+    private static final int THREADS = 8;
+
+    /** Number of elements in queue */
+    private static final int ELEMENTS = 4;
+
+    /** Number of dequeue attempts per thread */
+    private static final int OPERATIONS = 1000000;
+
+    /** Number of producers in batch dequeue test */
+    private static final int PRODUCERS = 4;
+
+    /** Number of elements per producer in batch dequeue test */
+    private static final int ELEMENTS_PER_PRODUCER = 200000;
+
+    public static void main(String[] args) throws Exception {
+        TestUtil.runTests(
+            WonderQueueTest::testSingleThreadOrder,
+            WonderQueueTest::testConcurrentRecycling,
+            WonderQueueTest::testBatchDequeue);
+    }
+
+    /**
+     * Concurrent dequeue returns elements in FIFO order - also after they were re-enqueued
+     */
+    private static void testSingleThreadOrder() {
+        WonderQueue<Element> queue = new WonderQueue<Element>(true);
+        check(queue.concurrentDequeue() == null, "new queue not empty");
+        Element[] elements = createElements(queue);
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < ELEMENTS; i++) {
+                Element e = queue.concurrentDequeue();
+                check(e == elements[(i + round) % ELEMENTS], "wrong element in round " + round);
+            }
+            check(queue.concurrentDequeue() == null, "queue not empty after round " + round);
+            for (int i = 0; i < ELEMENTS; i++) {
+                queue.enqueue(elements[(i + round + 1) % ELEMENTS]); // rotates order by one in each round
+            }
+        }
+    }
+
+    /**
+     * Several threads dequeue and re-enqueue elements - checks for duplicates and lost elements
+     */
+    private static void testConcurrentRecycling() throws Exception {
+        final WonderQueue<Element> queue = new WonderQueue<Element>(true);
+        createElements(queue);
+        TestUtil.runConcurrently(THREADS, (int thread) -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                Element e = queue.concurrentDequeue();
+                if (e == null) {
+                    continue;
+                }
+                check(e.dequeued.compareAndSet(false, true), "element " + e.id + " dequeued twice");
+                e.dequeued.set(false);
+                queue.enqueue(e);
+            }
+        });
+
+        boolean[] found = new boolean[ELEMENTS];
+        for (int i = 0; i < ELEMENTS; i++) {
+            Element e = queue.concurrentDequeue();
+            check(e != null, "element lost - only " + i + " elements left in queue");
+            check(!found[e.id], "element " + e.id + " contained twice");
+            found[e.id] = true;
+        }
+        check(queue.concurrentDequeue() == null, "queue contains more elements than were enqueued");
+    }
+
+    /**
+     * Several producers enqueue elements - single reader dequeues them in batches and checks per-producer order
+     */
+    private static void testBatchDequeue() throws Exception {
+        final WonderQueue<Element> queue = new WonderQueue<Element>();
+        TestUtil.runConcurrently(PRODUCERS + 1, (int thread) -> {
+            if (thread < PRODUCERS) {
+                for (int i = 0; i < ELEMENTS_PER_PRODUCER; i++) {
+                    queue.enqueue(new Element(thread * ELEMENTS_PER_PRODUCER + i));
+                }
+                return;
+            }
+
+            // last thread is the reader
+            ArrayWrapper<Element> buffer = new ArrayWrapper<Element>(16);
+            int[] nextExpected = new int[PRODUCERS];
+            int received = 0;
+            while (received < PRODUCERS * ELEMENTS_PER_PRODUCER) {
+                int count = queue.dequeue(buffer, buffer.getCapacity());
+                if (count == 0) {
+                    Thread.yield();
+                }
+                for (int i = 0; i < count; i++) {
+                    int producer = buffer.get(i).id / ELEMENTS_PER_PRODUCER;
+                    int sequence = buffer.get(i).id % ELEMENTS_PER_PRODUCER;
+                    check(sequence == nextExpected[producer], "producer " + producer + ": expected " + nextExpected[producer] + ", got " + sequence);
+                    nextExpected[producer]++;
+                }
+                received += count;
+            }
+        });
+        check(queue.dequeue() == null, "queue not empty after test");
+    }
+
+    /**
+     * @param queue Queue to enqueue elements to
+     * @return Created elements (in queue order)
+     */
+    private static Element[] createElements(WonderQueue<Element> queue) {
+        Element[] elements = new Element[ELEMENTS];
+        for (int i = 0; i < ELEMENTS; i++) {
+            elements[i] = new Element(i);
+            queue.enqueue(elements[i]);
+        }
+        return elements;
+    }
+
+    /**
+     * Queue element
+     */
+    private static class Element extends Queueable {
+
+        /** Index of element */
+        private final int id;
+
+        /** Is element currently dequeued by a thread? */
+        private final AtomicBoolean dequeued = new AtomicBoolean();
+
+        private Element(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+//
+// You received this file as part of RRLib
+// Robotics Research Library
+//
+// Copyright (C) Finroc GbR (finroc.org)
+//
+// This program is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation; either version 2 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, write to the Free Software Foundation, Inc.,
+// 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+//
+//----------------------------------------------------------------------
+package org.rrlib.finroc_core_utils.tests;
+
+import static org.rrlib.finroc_core_utils.tests.TestUtil.check;
+
+import org.rrlib.finroc_core_utils.jc.ArrayWrapper;
+import org.rrlib.finroc_core_utils.jc.container.WonderRingQueue;
+
+/**
+ * @author Max Reichardt
+ *
+ * Tests WonderRingQueue: capacity rounding, full/empty behaviour, wraparound of
+ * slot sequence numbers - and FIFO order per producer with multiple concurrent producers.
+ */
+public class WonderRingQueueTest {
+
+    /** Number of producers in multi-producer test */
+    private static final int PRODUCERS = 4;
+
+    /** Number of elements per producer in multi-producer test */
+    private static final int ELEMENTS_PER_PRODUCER = 200000;
+
+    public static void main(String[] args) throws Exception {
+        TestUtil.runTests(
+            WonderRingQueueTest::testCapacity,
+            WonderRingQueueTest::testFullEmptyWraparound,
+            WonderRingQueueTest::testBatchDequeue,
+            WonderRingQueueTest::testMultiProducerOrder);
+    }
+
+    /**
+     * Capacity is rounded up to next power of two
+     */
+    private static void testCapacity() {
+        check(new WonderRingQueue<Integer>(1).getCapacity() == 2, "capacity 1");
+        check(new WonderRingQueue<Integer>(4).getCapacity() == 4, "capacity 4");
+        check(new WonderRingQueue<Integer>(5).getCapacity() == 8, "capacity 5");
+    }
+
+    /**
+     * Fill and empty a small queue many times - so that positions wrap around the buffer many times
+     */
+    private static void testFullEmptyWraparound() {
+        WonderRingQueue<Integer> queue = new WonderRingQueue<Integer>(4);
+        check(queue.isEmpty() && queue.dequeue() == null, "new queue not empty");
+        int next = 0, expected = 0;
+        for (int round = 0; round < 1000; round++) {
+
+            // fill queue (number of elements varies, so that head and tail are at all slot offsets)
+            int count = (round % 4) + 1;
+            for (int i = 0; i < count; i++) {
+                check(queue.enqueue(next++), "enqueue failed in round " + round);
+            }
+            if (count == 4) {
+                check(!queue.enqueue(-1), "enqueue succeeded on full queue in round " + round);
+            }
+
+            // empty queue
+            check(!queue.isEmpty(), "queue empty in round " + round);
+            for (int i = 0; i < count; i++) {
+                Integer value = queue.dequeue();
+                check(value != null && value == expected, "expected " + expected + ", got " + value);
+                expected++;
+            }
+            check(queue.isEmpty() && queue.dequeue() == null, "queue not empty after round " + round);
+        }
+    }
+
+    /**
+     * Batch dequeue returns elements in FIFO order - and frees slots for producers
+     */
+    private static void testBatchDequeue() {
+        WonderRingQueue<Integer> queue = new WonderRingQueue<Integer>(8);
+        ArrayWrapper<Integer> result = new ArrayWrapper<Integer>(8);
+        int next = 0, expected = 0;
+        for (int round = 0; round < 100; round++) {
+            while (queue.enqueue(next)) {
+                next++;
+            }
+            int count = queue.dequeue(result, 5);
+            check(count == 5, "batch dequeue returned " + count);
+            for (int i = 0; i < count; i++) {
+                check(result.get(i) == expected, "expected " + expected + ", got " + result.get(i));
+                expected++;
+            }
+        }
+        int count = queue.dequeue(result, 8);
+        check(count == next - expected, "remaining elements: " + count);
+    }
+
+    /**
+     * Several producers enqueue into a small queue (frequently full) - reader checks per-producer order
+     */
+    private static void testMultiProducerOrder() throws Exception {
+        final WonderRingQueue<long[]> queue = new WonderRingQueue<long[]>(64);
+        TestUtil.runConcurrently(PRODUCERS + 1, (int thread) -> {
+            if (thread < PRODUCERS) {
+                for (long i = 0; i < ELEMENTS_PER_PRODUCER; i++) {
+                    long[] element = new long[] {thread, i};
+                    while (!queue.enqueue(element)) {
+                        Thread.yield(); // queue full
+                    }
+                }
+                return;
+            }
+
+            // last thread is the reader
+            long[] nextExpected = new long[PRODUCERS];
+            long received = 0;
+            while (received < (long)PRODUCERS * ELEMENTS_PER_PRODUCER) {
+                long[] element = queue.dequeue();
+                if (element == null) {
+                    Thread.yield();
+                    continue;
+                }
+                int producer = (int)element[0];
+                check(element[1] == nextExpected[producer], "producer " + producer + ": expected " + nextExpected[producer] + ", got " + element[1]);
+                nextExpected[producer]++;
+                received++;
+            }
+        });
+        check(queue.isEmpty() && queue.dequeue() == null, "queue not empty after test");
+    }
+}